@@ -1,17 +1,22 @@
 package it.polimi.moscowmule.neighborhoodsecurity.authentication;
 
+import java.util.concurrent.Callable;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
-import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.SecurityContext;
 
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.Message;
-import it.polimi.moscowmule.neighborhoodsecurity.utilities.ProjectConstants;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.async.BoundedExecutor;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.AuthorizationDBException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoTokenCreatedException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoUserFoundException;
@@ -40,35 +45,40 @@ public class AuthenticationResource {
 	@Path("/classic")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-	public Response loginClassic(@FormParam("username") String username, @FormParam("password") String password) {
-		try {
-			int userId = Authenticator.checkPassword(username, password);
-			String authToken = Authenticator.generateToken(userId);
-			AuthToken toBeReturned = new AuthToken();
-			toBeReturned.setAuthToken(authToken);
-			toBeReturned.setUserId(userId);
-			toBeReturned.setUsername(username);
-			return Response.ok(toBeReturned).build();
-		} catch (NoUserFoundException e) {
-			return Response.status(Status.UNAUTHORIZED).entity(new Message("AUTHORIZATION", "Login is incorrect"))
-					.build();
-		} catch (SecretDBException e) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("DATABASE", e.getMessage()))
-					.build();
-		} catch (AuthorizationDBException e) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("DATABASE", e.getMessage()))
-					.build();
-		} catch (NoTokenCreatedException e) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR)
-					.entity(new Message("DATABASE", "Problem in generating the token")).build();
-		}
-
+	public void loginClassic(@Suspended AsyncResponse response, @FormParam("username") final String username,
+			@FormParam("password") final String password) {
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				try {
+					int userId = Authenticator.checkPassword(username, password);
+					String authToken = Authenticator.generateToken(userId);
+					AuthToken toBeReturned = new AuthToken();
+					toBeReturned.setAuthToken(authToken);
+					toBeReturned.setUserId(userId);
+					toBeReturned.setUsername(username);
+					return Response.ok(toBeReturned).build();
+				} catch (NoUserFoundException e) {
+					return Response.status(Status.UNAUTHORIZED).entity(new Message("AUTHORIZATION", "Login is incorrect"))
+							.build();
+				} catch (SecretDBException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("DATABASE", e.getMessage()))
+							.build();
+				} catch (AuthorizationDBException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("DATABASE", e.getMessage()))
+							.build();
+				} catch (NoTokenCreatedException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR)
+							.entity(new Message("DATABASE", "Problem in generating the token")).build();
+				}
+			}
+		});
 	}
 
 	/**
-	 * Logout by invalidating a token
+	 * Logout by invalidating the token of the request, resolved by
+	 * {@link RequestFilter}
 	 * 
-	 * @param authToken
 	 * @return OK, if the provided token was valid and now it is no more;
 	 *         UNAUTHORIZED, if the token is already invalid;
 	 *         INTERNAL_SERVER_ERROR, if there was a problem with your request
@@ -76,18 +86,24 @@ public class AuthenticationResource {
 	@POST
 	@Path("/logout")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response logout(@HeaderParam(ProjectConstants.AUTH_TOKEN) String authToken) {
-		try {
-			int userId = Authenticator.getUserId(authToken);
-			Authenticator.invalidateToken(userId);
-			return Response.ok(new Message("AUTHORIZATION", "Logged out, discard your token")).build();
-		} catch (AuthorizationDBException e) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("DATABASE", e.getMessage()))
-					.build();
-		} catch (NoUserFoundException e) {
-			return Response.status(Status.UNAUTHORIZED)
-					.entity(new Message("AUTHORIZATION", "Your auth token is already invalid")).build();
-		}
+	public void logout(@Suspended AsyncResponse response, @Context SecurityContext securityContext) {
+		final UserPrincipal principal = UserPrincipal.of(securityContext);
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (principal == null) {
+					return Response.status(Status.UNAUTHORIZED)
+							.entity(new Message("AUTHORIZATION", "Your auth token is already invalid")).build();
+				}
+				try {
+					Authenticator.invalidateToken(principal.getUserId());
+					return Response.ok(new Message("AUTHORIZATION", "Logged out, discard your token")).build();
+				} catch (AuthorizationDBException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("DATABASE", e.getMessage()))
+							.build();
+				}
+			}
+		});
 	}
 
 }
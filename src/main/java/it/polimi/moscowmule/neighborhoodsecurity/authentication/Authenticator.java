@@ -7,7 +7,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.UUID;
 
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.ProjectConstants;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.cache.LruCache;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.AuthorizationDBException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoTokenCreatedException;
@@ -21,6 +23,46 @@ import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.SecretDBEx
  *
  */
 public class Authenticator {
+	/**
+	 * users by valid token, the time to live bounds how long a token
+	 * invalidated by another instance is still accepted here
+	 */
+	private static final LruCache<String, UserPrincipal> validTokens = new LruCache<String, UserPrincipal>(
+			"auth-tokens", Configuration.getInt("AUTH_TOKEN_CACHE_SIZE", 10000),
+			Configuration.getLong("AUTH_TOKEN_CACHE_WINDOW_MS", 30000));
+	/**
+	 * tokens of no user, tokens are random and never become valid later
+	 */
+	private static final LruCache<String, Boolean> invalidTokens = new LruCache<String, Boolean>(
+			"auth-tokens-invalid", Configuration.getInt("AUTH_TOKEN_NEGATIVE_CACHE_SIZE", 10000),
+			Configuration.getLong("AUTH_TOKEN_NEGATIVE_CACHE_TTL_MS", 300000));
+	/**
+	 * cached token of each user, to evict it when the user logs in or out.
+	 * Bounded as validTokens: a token whose user is evicted first here stays
+	 * valid after a logout until it expires, as on the other instances
+	 */
+	private static final LruCache<Integer, String> tokenOfUser = new LruCache<Integer, String>("auth-token-users",
+			Configuration.getInt("AUTH_TOKEN_CACHE_SIZE", 10000),
+			Configuration.getLong("AUTH_TOKEN_CACHE_WINDOW_MS", 30000));
+	/**
+	 * stateless tokens, used instead of the UUIDs stored in the database when
+	 * AUTH_TOKEN_MODE is "signed", null otherwise
+	 */
+	private static final SignedTokens signedTokens = createSignedTokens();
+
+	private static SignedTokens createSignedTokens() {
+		if (!Configuration.getString("AUTH_TOKEN_MODE", "uuid").equals("signed")) {
+			return null;
+		}
+		String secret = Configuration.getString("AUTH_TOKEN_SECRET", null);
+		if (secret == null || secret.length() < 32) {
+			System.out.println("[AUTH] AUTH_TOKEN_SECRET missing or shorter than 32 characters, using uuid tokens");
+			return null;
+		}
+		System.out.println("[AUTH] Using signed tokens");
+		return new SignedTokens(secret, Configuration.getLong("AUTH_SIGNED_TOKEN_TTL_MIN", 60) * 60 * 1000);
+	}
+
 	/**
 	 * Retrieves user id given the token
 	 * 
@@ -31,28 +73,95 @@ public class Authenticator {
 	 *             if the authToken is of no user
 	 */
 	public static int getUserId(String authToken) throws AuthorizationDBException, NoUserFoundException {
-		System.out.println("[DB] getting user id with token " + authToken);
+		return getPrincipal(authToken).getUserId();
+	}
+
+	/**
+	 * Retrieves the user owning a token, together with its superuser flag.
+	 * Signed tokens are verified without reading the database. For UUID
+	 * tokens, valid and invalid tokens are cached, a token invalidated by another
+	 * instance of the application is honored here for at most
+	 * AUTH_TOKEN_CACHE_WINDOW_MS
+	 * 
+	 * @param authToken
+	 * @return the authenticated user
+	 * @throws AuthorizationDBException
+	 * @throws NoUserFoundException
+	 *             if the authToken is of no user
+	 */
+	public static UserPrincipal getPrincipal(String authToken) throws AuthorizationDBException, NoUserFoundException {
+		if (authToken == null) {
+			throw new NoUserFoundException();
+		}
+		if (signedTokens != null && SignedTokens.isSigned(authToken)) {
+			UserPrincipal principal = signedTokens.verify(authToken);
+			if (principal == null) {
+				throw new NoUserFoundException();
+			}
+			return principal;
+		}
+		if (invalidTokens.get(authToken) != null) {
+			throw new NoUserFoundException();
+		}
+		UserPrincipal cached = validTokens.get(authToken);
+		if (cached != null) {
+			return cached;
+		}
+		long stamp = validTokens.stamp();
+		try {
+			UserPrincipal principal = loadPrincipal(authToken);
+			// the user first, so that a login or logout of the user while
+			// loading leaves the token out of both caches
+			if (tokenOfUser.put(principal.getUserId(), authToken, stamp)) {
+				validTokens.put(authToken, principal, stamp);
+			}
+			return principal;
+		} catch (NoUserFoundException e) {
+			invalidTokens.put(authToken, Boolean.TRUE);
+			throw e;
+		}
+	}
+
+	/**
+	 * Removes from the cache the token of a user, to be called whenever the
+	 * token of the user changes. Can be hooked to a notification from other
+	 * instances of the application to shorten the window in which they
+	 * honor a logged out token
+	 * 
+	 * @param id
+	 *            of the user
+	 */
+	public static void evictUser(int id) {
+		// also when nothing is cached, so that a concurrent lookup that read
+		// the old token does not cache it
+		String token = tokenOfUser.invalidate(id);
+		if (token != null) {
+			validTokens.invalidate(token);
+		}
+	}
+
+	private static UserPrincipal loadPrincipal(String authToken) throws AuthorizationDBException, NoUserFoundException {
+		System.out.println("[DB] getting principal with token " + authToken);
 		try (Connection connection = Database.getConnection()) {
 			PreparedStatement getStmt = connection.prepareStatement(
-					"SELECT ID FROM gsx95369n3oh2zo6.authorization WHERE TOKEN = ? AND ISVALID = 1",
-					ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+					"SELECT ID, SUPERUSER FROM gsx95369n3oh2zo6.authorization WHERE TOKEN = ? AND ISVALID = 1");
 			getStmt.clearParameters();
 			getStmt.setString(1, authToken);
 			ResultSet result = getStmt.executeQuery();
 			System.out.println("[DB] Query executed");
 			if (result.next()) {
-				System.out.println("[DB] Id found");
-				return result.getInt(1);
+				System.out.println("[DB] Principal found");
+				return new UserPrincipal(result.getInt(1), result.getInt(2) > 0);
 			} else {
 				// no match
-				System.out.println("[DB] Id not found");
+				System.out.println("[DB] Principal not found");
 				throw new NoUserFoundException();
 			}
 
 		} catch (ClassNotFoundException | URISyntaxException | SQLException e) {
-			System.out.println("[DB] EXCEPTION in Authenicator.getUserId()");
+			System.out.println("[DB] EXCEPTION in Authenicator.getPrincipal()");
 			System.out.println(e.getMessage());
-			throw new AuthorizationDBException("ERROR when finding user id from token", e);
+			throw new AuthorizationDBException("ERROR when finding user from token", e);
 		}
 	}
 
@@ -96,7 +205,10 @@ public class Authenticator {
 	}
 
 	/**
-	 * Checks if a username-password pair match a valid user id
+	 * Checks if a username-password pair match a valid user id. The user is
+	 * found through the index on USERNAME (see sql/users_username_index.sql),
+	 * then the password is compared with the secret of exactly that user, in
+	 * SQL under the collation of the PASSWORD column as it has always been
 	 * 
 	 * @param username
 	 * @param password
@@ -107,11 +219,14 @@ public class Authenticator {
 	 */
 	public static int checkPassword(String username, String password) throws NoUserFoundException, SecretDBException {
 		System.out.println("[DB] Checking password for " + username);
+		if (username == null || password == null) {
+			throw new NoUserFoundException();
+		}
 		try (Connection connection = Database.getConnection()) {
 
 			PreparedStatement getStmt = connection.prepareStatement(
-					"SELECT gsx95369n3oh2zo6.users.ID FROM gsx95369n3oh2zo6.users JOIN gsx95369n3oh2zo6.secret WHERE USERNAME = ? AND PASSWORD = ?",
-					ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+					"SELECT u.ID FROM gsx95369n3oh2zo6.users u JOIN gsx95369n3oh2zo6.secret s ON s.ID = u.ID "
+							+ "WHERE u.USERNAME = ? AND s.PASSWORD = ?");
 			getStmt.clearParameters();
 			getStmt.setString(1, username);
 			getStmt.setString(2, password);
@@ -133,7 +248,8 @@ public class Authenticator {
 	}
 
 	/**
-	 * Generates a new token for the given user id
+	 * Generates a new token for the given user id, signed or stored in the
+	 * database depending on AUTH_TOKEN_MODE
 	 * 
 	 * @param id
 	 *            the user id
@@ -142,6 +258,14 @@ public class Authenticator {
 	 * @throws NoTokenCreatedException
 	 */
 	public static String generateToken(int id) throws AuthorizationDBException, NoTokenCreatedException {
+		if (signedTokens != null) {
+			try {
+				return signedTokens.issue(id, isSuperuser(id));
+			} catch (NoUserFoundException e) {
+				System.out.println("[AUTH] No authorization row for " + id);
+				throw new NoTokenCreatedException();
+			}
+		}
 		System.out.println("[DB] Generating token for " + id);
 		try (Connection connection = Database.getConnection()) {
 
@@ -151,6 +275,7 @@ public class Authenticator {
 			updStmt.setString(1, token);
 			updStmt.setInt(2, id);
 			int result = updStmt.executeUpdate();
+			evictUser(id);
 
 			if (result > 0) {
 				System.out.println("[DB] Token created");
@@ -168,7 +293,8 @@ public class Authenticator {
 	}
 
 	/**
-	 * Invalidates the token of the user
+	 * Invalidates the token of the user. Signed tokens are revoked in memory,
+	 * on the instance handling the logout
 	 * 
 	 * @param id
 	 *            of the user
@@ -176,6 +302,9 @@ public class Authenticator {
 	 * @throws AuthorizationDBException
 	 */
 	public static boolean invalidateToken(int id) throws AuthorizationDBException {
+		if (signedTokens != null) {
+			signedTokens.revoke(id);
+		}
 		System.out.println("[DB] Invalidating token for " + id);
 		try (Connection connection = Database.getConnection()) {
 
@@ -183,6 +312,7 @@ public class Authenticator {
 					.prepareStatement("UPDATE gsx95369n3oh2zo6.authorization SET ISVALID = 0 WHERE ID = ?");
 			updStmt.setInt(1, id);
 			int result = updStmt.executeUpdate();
+			evictUser(id);
 			if (result > 0) {
 				System.out.println("[DB] Token invalidated");
 				return true;
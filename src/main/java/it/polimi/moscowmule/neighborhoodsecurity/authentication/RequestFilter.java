@@ -5,26 +5,56 @@ import java.io.IOException;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.Provider;
 
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.ProjectConstants;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.AuthorizationDBException;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoUserFoundException;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.ratelimit.RateLimiter;
 
 /**
  * Request filter. 
  * <ul>
  * <li>always allow /help</li>
  * <li>deny if service key is invalid</li>
+ * <li>deny if the service key or the user exceeded its rate limit</li>
  * <li>allow all GET</li>
- * <li>allow all POST to /auth or /users
+ * <li>allow all POST to /auth/classic or /users
  * <li>deny if auth token is invalid</li>
  * </ul>
+ * The user owning the auth token is resolved here, once per request, and
+ * published as {@link UserPrincipal} through the security context of the
+ * request
+ * 
  * @author Simone Ripamonti
  *
  */
 @Provider
 @PreMatching
 public class RequestFilter implements ContainerRequestFilter {
+	/**
+	 * HTTP status of a rate limited request
+	 */
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * all the requests of a service key
+	 */
+	private static final RateLimiter SERVICE_KEY_LIMIT = new RateLimiter("service-key", 6000, 1000);
+	/**
+	 * POST /events of a user, each one may call the geocoding API
+	 */
+	private static final RateLimiter EVENTS_CREATE_LIMIT = new RateLimiter("events-create", 10, 5);
+	/**
+	 * POST and DELETE /events/{id}/vote of a user
+	 */
+	private static final RateLimiter VOTES_LIMIT = new RateLimiter("votes", 60, 20);
+	/**
+	 * other authenticated writes of a user
+	 */
+	private static final RateLimiter WRITES_LIMIT = new RateLimiter("writes", 120, 30);
 
 	@Override
 	public void filter(ContainerRequestContext requestContext) throws IOException {
@@ -52,6 +82,9 @@ public class RequestFilter implements ContainerRequestFilter {
 			requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).entity("Service key is invalid").build());
 			return;
 		}
+		if (limited(requestContext, SERVICE_KEY_LIMIT, serviceKey)) {
+			return;
+		}
 
 		// authorize all gets
 		if (requestContext.getMethod().equals("GET")) {
@@ -59,18 +92,47 @@ public class RequestFilter implements ContainerRequestFilter {
 		}
 
 		// authorize login and creation
-		if (path.startsWith("auth") || path.startsWith("users")) {
+		if (path.startsWith("auth/classic") || path.startsWith("users")) {
 			return;
 		}
 
 		String authToken = requestContext.getHeaderString(ProjectConstants.AUTH_TOKEN);
-		if (!Authenticator.isAuthTokenValid(authToken)) {
+		UserPrincipal principal;
+		try {
+			principal = Authenticator.getPrincipal(authToken);
+		} catch (NoUserFoundException e) {
 			requestContext.abortWith(Response.status(Response.Status.UNAUTHORIZED).entity("Auth token is invalid").build());
 			return;
+		} catch (AuthorizationDBException e) {
+			requestContext.abortWith(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build());
+			return;
 		}
-		
-		return;
+		requestContext.setSecurityContext(
+				new TokenSecurityContext(principal, requestContext.getSecurityContext().isSecure()));
 
+		RateLimiter limiter = WRITES_LIMIT;
+		if (path.endsWith("/vote")) {
+			limiter = VOTES_LIMIT;
+		} else if (path.equals("events") && requestContext.getMethod().equals("POST")) {
+			limiter = EVENTS_CREATE_LIMIT;
+		}
+		limited(requestContext, limiter, String.valueOf(principal.getUserId()));
+	}
+
+	/**
+	 * Aborts the request with TOO_MANY_REQUESTS if the client has no permits
+	 * left
+	 * 
+	 * @return true if the request has been aborted
+	 */
+	private static boolean limited(ContainerRequestContext requestContext, RateLimiter limiter, String client) {
+		long retryAfter = limiter.acquire(client);
+		if (retryAfter == 0) {
+			return false;
+		}
+		requestContext.abortWith(Response.status(TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, retryAfter)
+				.entity("Too many requests").build());
+		return true;
 	}
 
 }
@@ -0,0 +1,148 @@
+package it.polimi.moscowmule.neighborhoodsecurity.authentication;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Stateless auth tokens: the user id, the superuser flag, the issue time and
+ * the expiry signed with HMAC-SHA256. They are verified without reading the
+ * database, logouts are remembered in memory until the revoked tokens expire
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class SignedTokens {
+
+	private static final String ALGORITHM = "HmacSHA256";
+
+	private final SecretKeySpec key;
+	/**
+	 * lifetime of a token
+	 */
+	private final long ttlMillis;
+	/**
+	 * time of the last logout of each user, tokens issued before are revoked
+	 */
+	private final Map<Integer, Long> revokedBefore = new ConcurrentHashMap<Integer, Long>();
+	/**
+	 * Mac instances are not thread safe
+	 */
+	private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac m = Mac.getInstance(ALGORITHM);
+				m.init(key);
+				return m;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * @param secret
+	 *            shared by all the instances of the application
+	 * @param ttlMillis
+	 *            lifetime of a token
+	 */
+	public SignedTokens(String secret, long ttlMillis) {
+		this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Issues a token
+	 *
+	 * @param userId
+	 * @param superuser
+	 * @return the signed token
+	 */
+	public String issue(int userId, boolean superuser) {
+		long now = System.currentTimeMillis();
+		String payload = userId + "|" + (superuser ? 1 : 0) + "|" + now + "|" + (now + ttlMillis);
+		byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		return encode(bytes) + "." + encode(mac.get().doFinal(bytes));
+	}
+
+	/**
+	 * Verifies a token
+	 *
+	 * @param token
+	 * @return the user of the token, or null if the token is malformed,
+	 *         tampered, expired or revoked
+	 */
+	public UserPrincipal verify(String token) {
+		int dot = token.indexOf('.');
+		if (dot < 0) {
+			return null;
+		}
+		try {
+			byte[] payload = decode(token.substring(0, dot));
+			byte[] signature = decode(token.substring(dot + 1));
+			// constant time comparison
+			if (!MessageDigest.isEqual(signature, mac.get().doFinal(payload))) {
+				return null;
+			}
+			String[] parts = new String(payload, StandardCharsets.UTF_8).split("\\|");
+			int userId = Integer.parseInt(parts[0]);
+			long issuedAt = Long.parseLong(parts[2]);
+			long expiresAt = Long.parseLong(parts[3]);
+			if (expiresAt <= System.currentTimeMillis()) {
+				return null;
+			}
+			Long revoked = revokedBefore.get(userId);
+			if (revoked != null && issuedAt <= revoked) {
+				return null;
+			}
+			return new UserPrincipal(userId, parts[1].equals("1"));
+		} catch (RuntimeException e) {
+			// not base64, not enough parts or not numbers
+			return null;
+		}
+	}
+
+	/**
+	 * Revokes all the tokens issued to a user until now
+	 *
+	 * @param userId
+	 */
+	public void revoke(int userId) {
+		long now = System.currentTimeMillis();
+		revokedBefore.put(userId, now);
+		// tokens issued before now - ttl are expired anyway
+		Iterator<Long> it = revokedBefore.values().iterator();
+		while (it.hasNext()) {
+			if (it.next() < now - ttlMillis) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the token has the shape of a signed token
+	 */
+	public static boolean isSigned(String token) {
+		return token != null && token.indexOf('.') > 0;
+	}
+
+	private static String encode(byte[] bytes) {
+		return DatatypeConverter.printBase64Binary(bytes).replace('+', '-').replace('/', '_').replace("=", "");
+	}
+
+	private static byte[] decode(String base64) {
+		String padded = base64.replace('-', '+').replace('_', '/');
+		while (padded.length() % 4 != 0) {
+			padded += "=";
+		}
+		return DatatypeConverter.parseBase64Binary(padded);
+	}
+}
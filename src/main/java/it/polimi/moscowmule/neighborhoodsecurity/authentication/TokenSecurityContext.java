@@ -0,0 +1,52 @@
+package it.polimi.moscowmule.neighborhoodsecurity.authentication;
+
+import java.security.Principal;
+
+import javax.ws.rs.core.SecurityContext;
+
+/**
+ * Security context of a request authenticated with an auth token
+ * 
+ * @author Simone Ripamonti
+ *
+ */
+public class TokenSecurityContext implements SecurityContext {
+	/**
+	 * name of the authentication scheme
+	 */
+	public static final String AUTH_TOKEN_SCHEME = "AUTH_TOKEN";
+
+	private final UserPrincipal principal;
+	private final boolean secure;
+
+	/**
+	 * @param principal
+	 *            authenticated user
+	 * @param secure
+	 *            true if the request was made over https
+	 */
+	public TokenSecurityContext(UserPrincipal principal, boolean secure) {
+		this.principal = principal;
+		this.secure = secure;
+	}
+
+	@Override
+	public Principal getUserPrincipal() {
+		return principal;
+	}
+
+	@Override
+	public boolean isUserInRole(String role) {
+		return UserPrincipal.SUPERUSER.equals(role) && principal.isSuperuser();
+	}
+
+	@Override
+	public boolean isSecure() {
+		return secure;
+	}
+
+	@Override
+	public String getAuthenticationScheme() {
+		return AUTH_TOKEN_SCHEME;
+	}
+}
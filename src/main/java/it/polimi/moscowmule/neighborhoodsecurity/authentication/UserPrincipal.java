@@ -0,0 +1,61 @@
+package it.polimi.moscowmule.neighborhoodsecurity.authentication;
+
+import java.security.Principal;
+
+import javax.ws.rs.core.SecurityContext;
+
+/**
+ * User authenticated by the auth token of the request. Resolved once by
+ * {@link RequestFilter} and published through the {@link SecurityContext} of
+ * the request
+ * 
+ * @author Simone Ripamonti
+ *
+ */
+public class UserPrincipal implements Principal {
+	/**
+	 * role of the superusers, see {@link SecurityContext#isUserInRole(String)}
+	 */
+	public static final String SUPERUSER = "superuser";
+
+	/**
+	 * the user id
+	 */
+	private final int userId;
+	/**
+	 * true if the user can manage every event
+	 */
+	private final boolean superuser;
+
+	public UserPrincipal(int userId, boolean superuser) {
+		this.userId = userId;
+		this.superuser = superuser;
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	public boolean isSuperuser() {
+		return superuser;
+	}
+
+	@Override
+	public String getName() {
+		return String.valueOf(userId);
+	}
+
+	/**
+	 * Principal of a request
+	 * 
+	 * @param securityContext
+	 *            of the request
+	 * @return the principal, or null if the request is not authenticated
+	 */
+	public static UserPrincipal of(SecurityContext securityContext) {
+		if (securityContext != null && securityContext.getUserPrincipal() instanceof UserPrincipal) {
+			return (UserPrincipal) securityContext.getUserPrincipal();
+		}
+		return null;
+	}
+}
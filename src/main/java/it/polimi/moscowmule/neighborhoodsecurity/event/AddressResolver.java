@@ -0,0 +1,152 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import it.polimi.moscowmule.neighborhoodsecurity.geocoding.Geocoder;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.EventDBException;
+
+/**
+ * Resolves in background the address of the events created with coordinates
+ * only, so that the creation does not wait for the geocoder.
+ * <ul>
+ * <li>GEOCODING_ASYNC: resolve the addresses in background (default true)</li>
+ * <li>GEOCODING_WORKERS: threads calling the geocoder (default 2)</li>
+ * <li>GEOCODING_QUEUE: events waiting for a worker, beyond that they are left
+ * without address (default 1000)</li>
+ * <li>GEOCODING_RETRIES: attempts after the first failure (default 4), a
+ * position the geocoder finds no address for is not tried again</li>
+ * <li>GEOCODING_BACKOFF_MS: wait before the first retry, doubled at every
+ * retry (default 2000)</li>
+ * </ul>
+ *
+ * Pending events are kept in memory only, an event whose address cannot be
+ * resolved keeps its coordinates and has no country, city and street.
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public enum AddressResolver {
+	instance;
+
+	private final boolean enabled = Configuration.getBoolean("GEOCODING_ASYNC", true);
+	private final int retries = Configuration.getInt("GEOCODING_RETRIES", 4);
+	private final long backoff = Configuration.getLong("GEOCODING_BACKOFF_MS", 2000);
+
+	private final ThreadPoolExecutor workers;
+	private final ScheduledExecutorService retryScheduler;
+
+	private AddressResolver() {
+		int threads = Math.max(1, Configuration.getInt("GEOCODING_WORKERS", 2));
+		workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, Configuration.getInt("GEOCODING_QUEUE", 1000))),
+				daemon("geocoding-worker"));
+		workers.allowCoreThreadTimeOut(true);
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(daemon("geocoding-retry"));
+	}
+
+	/**
+	 * @return true if the addresses are resolved in background, otherwise the
+	 *         caller has to resolve them before creating the event
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Queues the resolution of the address of an event
+	 *
+	 * @param eventId
+	 * @param latitude
+	 * @param longitude
+	 * @return false if the queue is full and the event is left without address
+	 */
+	public boolean submit(int eventId, float latitude, float longitude) {
+		return enqueue(new Resolution(eventId, latitude, longitude, 0));
+	}
+
+	/**
+	 * Stops the workers, pending events are left without address
+	 */
+	public void shutdown() {
+		retryScheduler.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	private boolean enqueue(Resolution resolution) {
+		try {
+			workers.execute(resolution);
+			return true;
+		} catch (RejectedExecutionException e) {
+			System.out.println("[GEOCODING] Queue full, event " + resolution.eventId + " left without address");
+			return false;
+		}
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * One attempt at resolving the address of an event, on failure the next
+	 * attempt is scheduled after backoff * 2^attempt. A position without
+	 * address is not a failure
+	 */
+	private class Resolution implements Runnable {
+		private final int eventId;
+		private final float latitude;
+		private final float longitude;
+		private final int attempt;
+
+		Resolution(int eventId, float latitude, float longitude, int attempt) {
+			this.eventId = eventId;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.attempt = attempt;
+		}
+
+		@Override
+		public void run() {
+			try {
+				String[] address = Geocoder.instance.getAddress(latitude, longitude);
+				if (address == null) {
+					System.out.println("[GEOCODING] No address for event " + eventId);
+					return;
+				}
+				EventStorage.instance.updateAddress(eventId, address[0], address[1], address[2]);
+				return;
+			} catch (IOException | EventDBException | RuntimeException e) {
+				// geocoder unreachable, unexpected answer or database error, retry
+			}
+			if (attempt >= retries) {
+				System.out.println("[GEOCODING] Giving up on event " + eventId + " after " + (attempt + 1) + " attempts");
+				return;
+			}
+			final Resolution next = new Resolution(eventId, latitude, longitude, attempt + 1);
+			try {
+				retryScheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						enqueue(next);
+					}
+				}, backoff << attempt, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// shutting down
+			}
+		}
+	}
+}
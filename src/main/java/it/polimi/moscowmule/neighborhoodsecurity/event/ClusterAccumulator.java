@@ -0,0 +1,100 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups events in square cells of a given size and sums their counts and
+ * coordinates, used both by the in memory index and by the SQL aggregation
+ * 
+ * @author Simone Ripamonti
+ *
+ */
+class ClusterAccumulator {
+
+	private static final EventType[] TYPES = EventType.values();
+
+	/**
+	 * side of a cell, in degrees
+	 */
+	private final double cellSize;
+	/**
+	 * number of cells along a parallel
+	 */
+	private final long columns;
+	/**
+	 * per cell: count of each type, then total count
+	 */
+	private final Map<Long, int[]> counts = new HashMap<Long, int[]>();
+	/**
+	 * per cell: sum of latitudes and of longitudes
+	 */
+	private final Map<Long, double[]> sums = new HashMap<Long, double[]>();
+
+	ClusterAccumulator(double cellSize) {
+		this.cellSize = cellSize;
+		this.columns = (long) Math.ceil(360 / cellSize) + 1;
+	}
+
+	double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Adds a single event
+	 */
+	void add(float latitude, float longitude, int type) {
+		add(row(latitude), column(longitude), type, 1, latitude, longitude);
+	}
+
+	/**
+	 * Adds a group of events of the same type already assigned to a cell
+	 */
+	void add(long row, long column, int type, int count, double sumLatitude, double sumLongitude) {
+		long key = row * columns + column;
+		int[] c = counts.get(key);
+		double[] s = sums.get(key);
+		if (c == null) {
+			c = new int[TYPES.length + 1];
+			s = new double[2];
+			counts.put(key, c);
+			sums.put(key, s);
+		}
+		c[type] += count;
+		c[TYPES.length] += count;
+		s[0] += sumLatitude;
+		s[1] += sumLongitude;
+	}
+
+	/**
+	 * @return one cluster for each non empty cell
+	 */
+	List<EventCluster> build() {
+		List<EventCluster> clusters = new ArrayList<EventCluster>(counts.size());
+		for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+			int[] c = entry.getValue();
+			double[] s = sums.get(entry.getKey());
+			EventCluster cluster = new EventCluster();
+			cluster.setCount(c[TYPES.length]);
+			cluster.setLatitude(s[0] / c[TYPES.length]);
+			cluster.setLongitude(s[1] / c[TYPES.length]);
+			for (int t = 0; t < TYPES.length; t++) {
+				if (c[t] > 0) {
+					cluster.getTypes().add(new EventTypeCount(TYPES[t], c[t]));
+				}
+			}
+			clusters.add(cluster);
+		}
+		return clusters;
+	}
+
+	long row(float latitude) {
+		return (long) Math.floor((Math.max(-90, Math.min(90, latitude)) + 90) / cellSize);
+	}
+
+	long column(float longitude) {
+		return (long) Math.floor((Math.max(-180, Math.min(180, longitude)) + 180) / cellSize);
+	}
+}
@@ -55,6 +55,10 @@ public class Event {
 	 * number of votes
 	 */
 	private int votes;
+	/**
+	 * distance in meters from the center of a radius search, null otherwise
+	 */
+	private Double distance;
 	/**
 	 * foreign key, user that submitted the event
 	 */
@@ -178,4 +182,12 @@ public class Event {
 		this.votes = votes;
 	}
 
+	public Double getDistance() {
+		return distance;
+	}
+
+	public void setDistance(Double distance) {
+		this.distance = distance;
+	}
+
 }
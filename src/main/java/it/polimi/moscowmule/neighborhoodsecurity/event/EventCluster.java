@@ -0,0 +1,70 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Group of events falling in the same cell of the map, used to draw zoomed
+ * out views without downloading every event
+ * 
+ * @author Simone Ripamonti
+ *
+ */
+@XmlRootElement
+public class EventCluster {
+	/**
+	 * latitude of the centroid of the events
+	 */
+	private double latitude;
+	/**
+	 * longitude of the centroid of the events
+	 */
+	private double longitude;
+	/**
+	 * total number of events
+	 */
+	private int count;
+	/**
+	 * number of events of each type, types without events are omitted
+	 */
+	private List<EventTypeCount> types = new ArrayList<EventTypeCount>();
+
+	public EventCluster() {
+
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public List<EventTypeCount> getTypes() {
+		return types;
+	}
+
+	public void setTypes(List<EventTypeCount> types) {
+		this.types = types;
+	}
+
+}
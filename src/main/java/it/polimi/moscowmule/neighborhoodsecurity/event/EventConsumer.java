@@ -0,0 +1,22 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.io.IOException;
+
+/**
+ * Receives the events read by a streaming query of {@link EventStorage}
+ * 
+ * @author Simone Ripamonti
+ *
+ */
+public interface EventConsumer {
+
+	/**
+	 * Called once for each event, in the order they are read
+	 * 
+	 * @param e
+	 *            the event
+	 * @throws IOException
+	 *             stops the query
+	 */
+	void accept(Event e) throws IOException;
+}
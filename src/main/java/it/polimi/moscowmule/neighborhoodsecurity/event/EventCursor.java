@@ -0,0 +1,86 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Position in a list of events ordered by date and id, both descending. It is
+ * handed to the clients as an opaque string and used as keyset for the next
+ * page
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class EventCursor {
+	/**
+	 * date of the last event of the page
+	 */
+	private final Date date;
+	/**
+	 * id of the last event of the page
+	 */
+	private final int id;
+
+	public EventCursor(Date date, int id) {
+		this.date = date;
+		this.id = id;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Cursor pointing after the given event
+	 *
+	 * @param e
+	 *            last event of a page
+	 * @return the cursor
+	 */
+	public static EventCursor after(Event e) {
+		// events created before the date was always set have no date, see
+		// sql/events_keyset_index.sql
+		long date = e.getDate() == null ? 0 : e.getDate().getTime();
+		return new EventCursor(new Date(date), e.getId());
+	}
+
+	/**
+	 * @return the opaque representation of the cursor
+	 */
+	public String encode() {
+		String plain = date.toString() + "|" + id;
+		return DatatypeConverter.printBase64Binary(plain.getBytes(StandardCharsets.UTF_8)).replace('+', '-')
+				.replace('/', '_').replace("=", "");
+	}
+
+	/**
+	 * Parses a cursor received from a client
+	 *
+	 * @param cursor
+	 *            opaque representation
+	 * @return the cursor, or null if it is not valid
+	 */
+	public static EventCursor decode(String cursor) {
+		try {
+			String base64 = cursor.replace('-', '+').replace('_', '/');
+			while (base64.length() % 4 != 0) {
+				base64 += "=";
+			}
+			String plain = new String(DatatypeConverter.parseBase64Binary(base64), StandardCharsets.UTF_8);
+			String[] parts = plain.split("\\|");
+			if (parts.length != 2) {
+				return null;
+			}
+			return new EventCursor(Date.valueOf(parts[0]), Integer.parseInt(parts[1]));
+		} catch (RuntimeException e) {
+			// not base64, not a date or not a number
+			return null;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory spatial index of the events, used to answer area queries without
+ * scanning the events table.
+ *
+ * The world is divided in square cells of a fixed size (in degrees); every
+ * cell stores the id, the coordinates and the type of its events in primitive
+ * arrays.
+ * Cells are immutable: a write builds a new copy of the cell and publishes it
+ * in a concurrent map, so any number of request threads can query the index
+ * without locking while writes (much rarer) are serialized on the index.
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class EventGridIndex {
+
+	/**
+	 * Events of a single cell, never modified once published
+	 */
+	private static final class Cell {
+		final int[] ids;
+		final float[] latitudes;
+		final float[] longitudes;
+		/**
+		 * ordinal of the {@link EventType}
+		 */
+		final byte[] types;
+
+		Cell(int n) {
+			this(new int[n], new float[n], new float[n], new byte[n]);
+		}
+
+		Cell(int[] ids, float[] latitudes, float[] longitudes, byte[] types) {
+			this.ids = ids;
+			this.latitudes = latitudes;
+			this.longitudes = longitudes;
+			this.types = types;
+		}
+
+		Cell with(int id, float latitude, float longitude, byte type) {
+			int n = ids.length;
+			int[] newIds = Arrays.copyOf(ids, n + 1);
+			float[] newLatitudes = Arrays.copyOf(latitudes, n + 1);
+			float[] newLongitudes = Arrays.copyOf(longitudes, n + 1);
+			byte[] newTypes = Arrays.copyOf(types, n + 1);
+			newIds[n] = id;
+			newLatitudes[n] = latitude;
+			newLongitudes[n] = longitude;
+			newTypes[n] = type;
+			return new Cell(newIds, newLatitudes, newLongitudes, newTypes);
+		}
+
+		Cell without(int id) {
+			int n = ids.length;
+			for (int i = 0; i < n; i++) {
+				if (ids[i] == id) {
+					if (n == 1) {
+						return null;
+					}
+					Cell cell = new Cell(n - 1);
+					int[] newIds = cell.ids;
+					float[] newLatitudes = cell.latitudes;
+					float[] newLongitudes = cell.longitudes;
+					System.arraycopy(ids, 0, newIds, 0, i);
+					System.arraycopy(ids, i + 1, newIds, i, n - i - 1);
+					System.arraycopy(latitudes, 0, newLatitudes, 0, i);
+					System.arraycopy(latitudes, i + 1, newLatitudes, i, n - i - 1);
+					System.arraycopy(longitudes, 0, newLongitudes, 0, i);
+					System.arraycopy(longitudes, i + 1, newLongitudes, i, n - i - 1);
+					System.arraycopy(types, 0, cell.types, 0, i);
+					System.arraycopy(types, i + 1, cell.types, i, n - i - 1);
+					return cell;
+				}
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * side of a cell, in degrees
+	 */
+	private final double cellSize;
+	/**
+	 * number of cells along a parallel
+	 */
+	private final long columns;
+	/**
+	 * cells containing at least one event
+	 */
+	private volatile Map<Long, Cell> cells = new ConcurrentHashMap<Long, Cell>();
+	/**
+	 * cell of each indexed event
+	 */
+	private volatile Map<Integer, Long> cellOfEvent = new ConcurrentHashMap<Integer, Long>();
+	/**
+	 * highest indexed id, used for incremental refreshes
+	 */
+	private volatile int maxId;
+	/**
+	 * true once the index has been loaded, before that it must not be queried
+	 */
+	private volatile boolean ready;
+
+	public EventGridIndex(double cellSize) {
+		this.cellSize = cellSize;
+		this.columns = (long) Math.ceil(360 / cellSize) + 1;
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	public int getMaxId() {
+		return maxId;
+	}
+
+	public int size() {
+		return cellOfEvent.size();
+	}
+
+	/**
+	 * Replaces the whole content of the index and marks it as ready
+	 *
+	 * @param ids
+	 *            of the events
+	 * @param latitudes
+	 *            of the events
+	 * @param longitudes
+	 *            of the events
+	 * @param types
+	 *            ordinals of the {@link EventType} of the events
+	 * @param count
+	 *            number of valid entries in the arrays
+	 */
+	public synchronized void load(int[] ids, float[] latitudes, float[] longitudes, byte[] types, int count) {
+		Map<Long, Cell> newCells = new ConcurrentHashMap<Long, Cell>();
+		Map<Integer, Long> newCellOfEvent = new ConcurrentHashMap<Integer, Long>();
+		int newMaxId = 0;
+		// group the events by cell first, so that each cell is allocated once
+		Map<Long, int[]> counts = new HashMap<Long, int[]>();
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = key(latitudes[i], longitudes[i]);
+			int[] c = counts.get(keys[i]);
+			if (c == null) {
+				c = new int[1];
+				counts.put(keys[i], c);
+			}
+			c[0]++;
+		}
+		for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+			int n = entry.getValue()[0];
+			newCells.put(entry.getKey(), new Cell(n));
+			entry.getValue()[0] = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			Cell cell = newCells.get(keys[i]);
+			int[] c = counts.get(keys[i]);
+			cell.ids[c[0]] = ids[i];
+			cell.latitudes[c[0]] = latitudes[i];
+			cell.longitudes[c[0]] = longitudes[i];
+			cell.types[c[0]] = types[i];
+			c[0]++;
+			newCellOfEvent.put(ids[i], keys[i]);
+			newMaxId = Math.max(newMaxId, ids[i]);
+		}
+		cells = newCells;
+		cellOfEvent = newCellOfEvent;
+		maxId = newMaxId;
+		ready = true;
+	}
+
+	/**
+	 * Adds an event to the index, or moves it if already present
+	 *
+	 * @param id
+	 *            of the event
+	 * @param latitude
+	 *            of the event
+	 * @param longitude
+	 *            of the event
+	 * @param type
+	 *            of the event
+	 */
+	public synchronized void put(int id, float latitude, float longitude, EventType type) {
+		remove(id);
+		long key = key(latitude, longitude);
+		Cell cell = cells.get(key);
+		if (cell == null) {
+			cell = new Cell(0);
+		}
+		cells.put(key, cell.with(id, latitude, longitude, (byte) type.ordinal()));
+		cellOfEvent.put(id, key);
+		maxId = Math.max(maxId, id);
+	}
+
+	/**
+	 * Removes an event from the index
+	 *
+	 * @param id
+	 *            of the event
+	 */
+	public synchronized void remove(int id) {
+		Long key = cellOfEvent.remove(id);
+		if (key == null) {
+			return;
+		}
+		Cell cell = cells.get(key);
+		if (cell != null) {
+			Cell updated = cell.without(id);
+			if (updated == null) {
+				cells.remove(key);
+			} else {
+				cells.put(key, updated);
+			}
+		}
+	}
+
+	/**
+	 * Finds the events strictly inside a rectangle, with the same semantic of
+	 * the SQL area query
+	 *
+	 * @param latitudeMin
+	 * @param latitudeMax
+	 * @param longitudeMin
+	 * @param longitudeMax
+	 * @return the ids of the events, in no particular order
+	 */
+	public int[] query(float latitudeMin, float latitudeMax, float longitudeMin, float longitudeMax) {
+		int[] result = new int[16];
+		int size = 0;
+		for (Cell cell : cellsIn(latitudeMin, latitudeMax, longitudeMin, longitudeMax)) {
+			if (size + cell.ids.length > result.length) {
+				result = Arrays.copyOf(result, Math.max(result.length * 2, size + cell.ids.length));
+			}
+			size = collect(cell, latitudeMin, latitudeMax, longitudeMin, longitudeMax, result, size);
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Groups the events strictly inside a rectangle in the cells of the
+	 * accumulator
+	 *
+	 * @param latitudeMin
+	 * @param latitudeMax
+	 * @param longitudeMin
+	 * @param longitudeMax
+	 * @param accumulator
+	 *            receiving the events
+	 */
+	void cluster(float latitudeMin, float latitudeMax, float longitudeMin, float longitudeMax,
+			ClusterAccumulator accumulator) {
+		for (Cell cell : cellsIn(latitudeMin, latitudeMax, longitudeMin, longitudeMax)) {
+			for (int i = 0; i < cell.ids.length; i++) {
+				float lat = cell.latitudes[i], lon = cell.longitudes[i];
+				if (lat > latitudeMin && lat < latitudeMax && lon > longitudeMin && lon < longitudeMax) {
+					accumulator.add(lat, lon, cell.types[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the non empty cells overlapping a rectangle
+	 *
+	 * @return the cells
+	 */
+	private List<Cell> cellsIn(float latitudeMin, float latitudeMax, float longitudeMin, float longitudeMax) {
+		List<Cell> found = new ArrayList<Cell>();
+		if (latitudeMin >= latitudeMax || longitudeMin >= longitudeMax) {
+			return found;
+		}
+		Map<Long, Cell> current = cells;
+		long rowMin = row(latitudeMin), rowMax = row(latitudeMax);
+		long colMin = column(longitudeMin), colMax = column(longitudeMax);
+		long covered = (rowMax - rowMin + 1) * (colMax - colMin + 1);
+
+		if (covered > current.size()) {
+			// zoomed out: cheaper to go through the non empty cells
+			for (Map.Entry<Long, Cell> entry : current.entrySet()) {
+				long r = entry.getKey() / columns, c = entry.getKey() % columns;
+				if (r >= rowMin && r <= rowMax && c >= colMin && c <= colMax) {
+					found.add(entry.getValue());
+				}
+			}
+		} else {
+			for (long r = rowMin; r <= rowMax; r++) {
+				for (long c = colMin; c <= colMax; c++) {
+					Cell cell = current.get(r * columns + c);
+					if (cell != null) {
+						found.add(cell);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	private static int collect(Cell cell, float latitudeMin, float latitudeMax, float longitudeMin,
+			float longitudeMax, int[] result, int size) {
+		for (int i = 0; i < cell.ids.length; i++) {
+			float lat = cell.latitudes[i], lon = cell.longitudes[i];
+			if (lat > latitudeMin && lat < latitudeMax && lon > longitudeMin && lon < longitudeMax) {
+				result[size++] = cell.ids[i];
+			}
+		}
+		return size;
+	}
+
+	private long key(float latitude, float longitude) {
+		return row(latitude) * columns + column(longitude);
+	}
+
+	private long row(float latitude) {
+		double lat = Math.max(-90, Math.min(90, latitude));
+		return (long) Math.floor((lat + 90) / cellSize);
+	}
+
+	private long column(float longitude) {
+		double lon = Math.max(-180, Math.min(180, longitude));
+		return (long) Math.floor((lon + 180) / cellSize);
+	}
+}
@@ -0,0 +1,100 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes a JSON array of events while they are read from the database. The
+ * output has the same shape of the one produced by MOXy for a list of
+ * {@link Event}: properties in alphabetical order, null properties omitted,
+ * dates as xsd:dateTime
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class EventJsonWriter implements EventConsumer {
+
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	private final JsonGenerator generator;
+	/**
+	 * not thread safe, one writer is used by a single request
+	 */
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+	/**
+	 * flush every this many events, so that the client starts receiving data
+	 */
+	private final int flushEvery;
+	private int written;
+
+	/**
+	 * Starts the array
+	 *
+	 * @param output
+	 *            where to write
+	 * @param flushEvery
+	 *            number of events after which the output is flushed
+	 * @throws IOException
+	 */
+	public EventJsonWriter(OutputStream output, int flushEvery) throws IOException {
+		this.generator = FACTORY.createGenerator(output, JsonEncoding.UTF8);
+		this.flushEvery = flushEvery;
+		generator.writeStartArray();
+	}
+
+	@Override
+	public void accept(Event e) throws IOException {
+		generator.writeStartObject();
+		writeString("city", e.getCity());
+		writeString("country", e.getCountry());
+		if (e.getDate() != null) {
+			generator.writeStringField("date", dateFormat.format(e.getDate()));
+		}
+		writeString("description", e.getDescription());
+		if (e.getDistance() != null) {
+			generator.writeNumberField("distance", e.getDistance());
+		}
+		if (e.getEventType() != null) {
+			generator.writeStringField("eventType", e.getEventType().name());
+		}
+		writeString("eventUrl", e.getEventUrl());
+		generator.writeNumberField("id", e.getId());
+		if (e.getLatitude() != null) {
+			generator.writeNumberField("latitude", e.getLatitude());
+		}
+		if (e.getLongitude() != null) {
+			generator.writeNumberField("longitude", e.getLongitude());
+		}
+		writeString("street", e.getStreet());
+		generator.writeNumberField("submitterId", e.getSubmitterId());
+		writeString("submitterUrl", e.getSubmitterUrl());
+		generator.writeNumberField("votes", e.getVotes());
+		generator.writeEndObject();
+
+		written++;
+		if (written % flushEvery == 0) {
+			generator.flush();
+		}
+	}
+
+	/**
+	 * Ends the array and flushes the output
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		generator.writeEndArray();
+		generator.close();
+	}
+
+	private void writeString(String name, String value) throws IOException {
+		if (value != null) {
+			generator.writeStringField(name, value);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.util.List;
+
+/**
+ * A page of events, ordered by date and id descending
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class EventPage {
+	/**
+	 * events of this page
+	 */
+	private final List<Event> events;
+	/**
+	 * where the next page starts, null if this is the last one
+	 */
+	private final EventCursor next;
+
+	public EventPage(List<Event> events, EventCursor next) {
+		this.events = events;
+		this.next = next;
+	}
+
+	public List<Event> getEvents() {
+		return events;
+	}
+
+	public EventCursor getNext() {
+		return next;
+	}
+
+}
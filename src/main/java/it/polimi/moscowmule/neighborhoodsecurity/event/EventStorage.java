@@ -1,5 +1,6 @@
 package it.polimi.moscowmule.neighborhoodsecurity.event;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.sql.Connection;
 import java.sql.Date;
@@ -8,18 +9,78 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.GeoUtils;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.cache.LruCache;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.EventDBException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoEventCreatedException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoEventFoundException;
-import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoVoteCreatedException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.VotesDBException;
 
 public enum EventStorage {
 	instance;
 
+	/**
+	 * All the columns of an event, in the order expected by
+	 * {@link #readEvent(ResultSet)}. The number of votes is read from the
+	 * VOTES counter, kept up to date by {@link #vote(int, int)} and
+	 * {@link #unvote(int, int)}
+	 */
+	private static final String EVENT_COLUMNS = "e.ID, e.DATE, e.EVENTTYPE, e.DESCRIPTION, e.COUNTRY, e.CITY, e.STREET, "
+			+ "e.LATITUDE, e.LONGITUDE, e.SUBMITTERID, e.VOTES";
+	/**
+	 * Selects all the columns of an event
+	 */
+	private static final String SELECT_EVENTS = "SELECT " + EVENT_COLUMNS + " FROM gsx95369n3oh2zo6.events e";
+	/**
+	 * maximum number of ids in a single IN (...) when loading events found in
+	 * the index
+	 */
+	private static final int MAX_IDS_PER_QUERY = 500;
+
+	/**
+	 * in memory index answering the area queries, see {@link EventsListener}
+	 * for how it is loaded and refreshed
+	 */
+	private final EventGridIndex index = new EventGridIndex(
+			Configuration.getInt("EVENTS_INDEX_CELL_MICRODEG", 10000) / 1e6);
+	/**
+	 * true if the events table has the LOCATION point column with a SPATIAL
+	 * index (see sql/events_location_spatial.sql), which is then written on
+	 * creation and used by the area and distance queries
+	 */
+	private final boolean spatial = Configuration.getBoolean("EVENTS_SPATIAL_INDEX", false);
+	/**
+	 * true if deleted events leave a tombstone (see sql/events_deleted.sql),
+	 * which the incremental refresh applies to the index and the cache.
+	 * Without them the deletes of the other instances reach the index only on
+	 * the next rebuild, so clusters are computed by the database
+	 */
+	private final boolean tombstones = Configuration.getBoolean("EVENTS_INDEX_TOMBSTONES", false);
+	/**
+	 * tombstones are kept for twice the rebuild interval, so that an instance
+	 * rebuilding its index always finds the ones written meanwhile
+	 */
+	private final long tombstonesRetentionMin = 2 * Math.max(1, Configuration.getLong("EVENTS_INDEX_REBUILD_MIN", 360));
+	/**
+	 * last tombstone applied to the index
+	 */
+	private volatile long lastTombstone;
+	/**
+	 * events by id, invalidated when an event is removed or its votes change
+	 * on this instance. Changes made by other instances are seen once the
+	 * entry expires
+	 */
+	private final LruCache<Integer, Event> cache = new LruCache<Integer, Event>("events",
+			Configuration.getInt("EVENTS_CACHE_SIZE", 10000), Configuration.getLong("EVENTS_CACHE_TTL_MS", 30000));
+
 	/**
 	 * Add event to the storage
 	 * 
@@ -32,11 +93,20 @@ public enum EventStorage {
 	public int add(Event e) throws EventDBException, NoEventCreatedException {
 		System.out.println("[DB] Creating new event " + e);
 		try (Connection connection = Database.getConnection()) {
-			PreparedStatement createStmt = connection.prepareStatement(
-					"INSERT INTO gsx95369n3oh2zo6.events (DATE, EVENTTYPE, DESCRIPTION,"
-							+ "COUNTRY, CITY, STREET, LATITUDE, LONGITUDE, SUBMITTERID) VALUES (?,?,?,?,?,?,?,?,?)",
-					Statement.RETURN_GENERATED_KEYS);
-			createStmt.setDate(1, (Date) e.getDate());
+			PreparedStatement createStmt;
+			if (spatial) {
+				createStmt = connection.prepareStatement("INSERT INTO gsx95369n3oh2zo6.events (DATE, EVENTTYPE, DESCRIPTION,"
+						+ "COUNTRY, CITY, STREET, LATITUDE, LONGITUDE, SUBMITTERID, LOCATION) VALUES (?,?,?,?,?,?,?,?,?,POINT(?,?))",
+						Statement.RETURN_GENERATED_KEYS);
+				createStmt.setFloat(10, e.getLongitude());
+				createStmt.setFloat(11, e.getLatitude());
+			} else {
+				createStmt = connection.prepareStatement(
+						"INSERT INTO gsx95369n3oh2zo6.events (DATE, EVENTTYPE, DESCRIPTION,"
+								+ "COUNTRY, CITY, STREET, LATITUDE, LONGITUDE, SUBMITTERID) VALUES (?,?,?,?,?,?,?,?,?)",
+						Statement.RETURN_GENERATED_KEYS);
+			}
+			createStmt.setDate(1, e.getDate() == null ? new Date(System.currentTimeMillis()) : new Date(e.getDate().getTime()));
 			createStmt.setString(2, e.getEventType().toString());
 			createStmt.setString(3, e.getDescription());
 			createStmt.setString(4, e.getCountry());
@@ -51,6 +121,7 @@ public enum EventStorage {
 			if (results.next()) {
 				int id = results.getInt(1);
 				System.out.println("[DB] Created event id " + id);
+				index.put(id, e.getLatitude(), e.getLongitude(), e.getEventType());
 				return id;
 			} else {
 				System.out.println("[DB] No event created");
@@ -84,6 +155,8 @@ public enum EventStorage {
 			System.out.println("[DB] Update executed");
 			if (count > 0) {
 				System.out.println("[DB] Event deleted");
+				index.remove(id);
+				cache.invalidate(id);
 				return true;
 			} else {
 				System.out.println("[DB] No event deleted");
@@ -96,6 +169,85 @@ public enum EventStorage {
 		}
 	}
 
+	/**
+	 * Sets the address of an event created with coordinates only
+	 *
+	 * @param id
+	 *            event to be updated
+	 * @param country
+	 * @param city
+	 * @param street
+	 * @return true if the event has been updated, false if it does not exist
+	 *         anymore
+	 * @throws EventDBException
+	 */
+	public boolean updateAddress(int id, String country, String city, String street) throws EventDBException {
+		System.out.println("[DB] Updating address of event with id " + id);
+		try (Connection connection = Database.getConnection()) {
+			PreparedStatement updateStmt = connection.prepareStatement(
+					"UPDATE gsx95369n3oh2zo6.events SET COUNTRY = ?, CITY = ?, STREET = ? WHERE ID = ?");
+			updateStmt.setString(1, country);
+			updateStmt.setString(2, city);
+			updateStmt.setString(3, street);
+			updateStmt.setInt(4, id);
+			int count = updateStmt.executeUpdate();
+			System.out.println("[DB] Update executed");
+			return count > 0;
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.updateAddress()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR in updating event address", e);
+		} finally {
+			cache.invalidate(id);
+		}
+	}
+
+	/**
+	 * Removes an event if the user is its submitter or a superuser. The check
+	 * and the delete are a single statement, the event is looked up again only
+	 * when nothing has been deleted, to tell FORBIDDEN from NOT_FOUND
+	 * 
+	 * @param eventId
+	 *            event to be removed
+	 * @param userId
+	 *            user asking for the removal
+	 * @return DELETED, FORBIDDEN or NOT_FOUND
+	 * @throws EventDBException
+	 */
+	public RemoveOutcome removeIfAuthorized(int eventId, int userId) throws EventDBException {
+		System.out.println("[DB] Removing event with id " + eventId + " on behalf of " + userId);
+		try (Connection connection = Database.getConnection()) {
+			PreparedStatement deleteStmt = connection.prepareStatement("DELETE e FROM gsx95369n3oh2zo6.events e "
+					+ "JOIN gsx95369n3oh2zo6.authorization a ON a.ID = ? "
+					+ "WHERE e.ID = ? AND (e.SUBMITTERID = a.ID OR a.SUPERUSER > 0)");
+			deleteStmt.setInt(1, userId);
+			deleteStmt.setInt(2, eventId);
+			int count = deleteStmt.executeUpdate();
+			System.out.println("[DB] Update executed");
+			if (count > 0) {
+				System.out.println("[DB] Event deleted");
+				index.remove(eventId);
+				cache.invalidate(eventId);
+				return RemoveOutcome.DELETED;
+			}
+
+			PreparedStatement getStmt = connection
+					.prepareStatement("SELECT 1 FROM gsx95369n3oh2zo6.events WHERE ID = ?");
+			getStmt.setInt(1, eventId);
+			if (getStmt.executeQuery().next()) {
+				System.out.println("[DB] Event not deleted, not authorized");
+				return RemoveOutcome.FORBIDDEN;
+			} else {
+				System.out.println("[DB] No event found");
+				return RemoveOutcome.NOT_FOUND;
+			}
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.removeIfAuthorized()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR in deleting event by id", e);
+		}
+	}
+
 	/**
 	 * Find event based on latitude and longitude
 	 * 
@@ -112,53 +264,469 @@ public enum EventStorage {
 	 */
 	public List<Event> getByArea(Float latitudeMin, Float latitudeMax, Float longitudeMin, Float longitudeMax)
 			throws EventDBException {
+		if (index.isReady()) {
+			int[] ids = index.query(latitudeMin, latitudeMax, longitudeMin, longitudeMax);
+			System.out.println("[INDEX] Found " + ids.length + " events by area");
+			return getByIds(ids);
+		}
 		System.out.println("[DB] Getting list of events by area");
 		try (Connection connection = Database.getConnection()) {
+			PreparedStatement getStmt = prepareAreaQuery(connection, latitudeMin, latitudeMax, longitudeMin,
+					longitudeMax);
+			ResultSet result = getStmt.executeQuery();
+			System.out.println("[DB] Query executed");
+			List<Event> events = new ArrayList<Event>();
+
+			while (result.next()) {
+				events.add(readEvent(result));
+			}
+			System.out.println("[DB] Found " + events.size() + " events");
+			return events;
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.getByArea()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR when finding events by coordinates", e);
+		}
+	}
+
+	/**
+	 * Find events based on latitude and longitude, handing each one to the
+	 * consumer. The ids of the events are taken from the index, or from the
+	 * database if it is not ready yet, then the events are loaded and consumed
+	 * {@link #MAX_IDS_PER_QUERY} at a time. Memory usage depends on the number
+	 * of events only through their ids, and no connection is held while the
+	 * consumer runs, which may be writing to a slow client
+	 * 
+	 * @param latitudeMin
+	 * @param latitudeMax
+	 * @param longitudeMin
+	 * @param longitudeMax
+	 * @param consumer
+	 *            receiving the events
+	 * @return the number of events found
+	 * @throws EventDBException
+	 * @throws IOException
+	 *             if the consumer failed
+	 */
+	public int streamByArea(float latitudeMin, float latitudeMax, float longitudeMin, float longitudeMax,
+			EventConsumer consumer) throws EventDBException, IOException {
+		System.out.println("[DB] Streaming events by area");
+		int[] ids = index.isReady() ? index.query(latitudeMin, latitudeMax, longitudeMin, longitudeMax)
+				: getIdsByArea(latitudeMin, latitudeMax, longitudeMin, longitudeMax);
+		int count = 0;
+		List<Event> batch = new ArrayList<Event>(Math.min(ids.length, MAX_IDS_PER_QUERY));
+		for (int from = 0; from < ids.length; from += MAX_IDS_PER_QUERY) {
+			batch.clear();
+			try (Connection connection = Database.getConnection()) {
+				ResultSet result = prepareIdsQuery(connection, ids, from).executeQuery();
+				while (result.next()) {
+					batch.add(readEvent(result));
+				}
+			} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+				System.out.println("[DB] EXCEPTION in EventStorage.streamByArea()");
+				System.out.println(e.getMessage());
+				throw new EventDBException("ERROR when finding events by coordinates", e);
+			}
+			for (Event e : batch) {
+				consumer.accept(e);
+			}
+			count += batch.size();
+		}
+		System.out.println("[DB] Streamed " + count + " events");
+		return count;
+	}
+
+	/**
+	 * @return the ids of the events strictly inside a rectangle
+	 * @throws EventDBException
+	 */
+	private int[] getIdsByArea(float latitudeMin, float latitudeMax, float longitudeMin, float longitudeMax)
+			throws EventDBException {
+		try (Connection connection = Database.getConnection()) {
+			ResultSet result = prepareAreaQuery(connection, "SELECT e.ID FROM gsx95369n3oh2zo6.events e",
+					latitudeMin, latitudeMax, longitudeMin, longitudeMax).executeQuery();
+			int[] ids = new int[1024];
+			int count = 0;
+			while (result.next()) {
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, count * 2);
+				}
+				ids[count++] = result.getInt(1);
+			}
+			return Arrays.copyOf(ids, count);
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.getIdsByArea()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR when finding events by coordinates", e);
+		}
+	}
 
+	/**
+	 * Groups the events inside a rectangle in square cells of the given size.
+	 * Only the aggregates are computed, events are never hydrated
+	 *
+	 * @param latitudeMin
+	 * @param latitudeMax
+	 * @param longitudeMin
+	 * @param longitudeMax
+	 * @param cellSize
+	 *            side of a cell, in degrees
+	 * @return one cluster for each non empty cell
+	 * @throws EventDBException
+	 */
+	public List<EventCluster> getClusters(float latitudeMin, float latitudeMax, float longitudeMin,
+			float longitudeMax, double cellSize) throws EventDBException {
+		ClusterAccumulator accumulator = new ClusterAccumulator(cellSize);
+		// unlike the events, the clusters are never checked against the database
+		if (index.isReady() && tombstones) {
+			index.cluster(latitudeMin, latitudeMax, longitudeMin, longitudeMax, accumulator);
+			List<EventCluster> clusters = accumulator.build();
+			System.out.println("[INDEX] Found " + clusters.size() + " clusters by area");
+			return clusters;
+		}
+		System.out.println("[DB] Getting clusters of events by area");
+		try (Connection connection = Database.getConnection()) {
 			PreparedStatement getStmt = connection.prepareStatement(
-					"SELECT * FROM gsx95369n3oh2zo6.events WHERE LATITUDE < ? AND LATITUDE > ? AND LONGITUDE < ? AND LONGITUDE > ?",
-					ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+					"SELECT FLOOR((LATITUDE + 90) / ?) R, FLOOR((LONGITUDE + 180) / ?) C, EVENTTYPE, COUNT(*), SUM(LATITUDE), SUM(LONGITUDE) "
+							+ "FROM gsx95369n3oh2zo6.events WHERE LATITUDE < ? AND LATITUDE > ? AND LONGITUDE < ? AND LONGITUDE > ? "
+							+ "GROUP BY R, C, EVENTTYPE");
+			getStmt.setDouble(1, cellSize);
+			getStmt.setDouble(2, cellSize);
+			getStmt.setFloat(3, latitudeMax);
+			getStmt.setFloat(4, latitudeMin);
+			getStmt.setFloat(5, longitudeMax);
+			getStmt.setFloat(6, longitudeMin);
+			ResultSet result = getStmt.executeQuery();
+			System.out.println("[DB] Query executed");
+			while (result.next()) {
+				accumulator.add(result.getLong(1), result.getLong(2), EventType.valueOf(result.getString(3)).ordinal(),
+						result.getInt(4), result.getDouble(5), result.getDouble(6));
+			}
+			List<EventCluster> clusters = accumulator.build();
+			System.out.println("[DB] Found " + clusters.size() + " clusters");
+			return clusters;
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.getClusters()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR when clustering events by coordinates", e);
+		}
+	}
+
+	/**
+	 * Prepares the forward only query of the events strictly inside a
+	 * rectangle
+	 * 
+	 * @return the statement, ready to be executed
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepareAreaQuery(Connection connection, float latitudeMin, float latitudeMax,
+			float longitudeMin, float longitudeMax) throws SQLException {
+		return prepareAreaQuery(connection, SELECT_EVENTS, latitudeMin, latitudeMax, longitudeMin, longitudeMax);
+	}
+
+	/**
+	 * @param select
+	 *            the columns of events e to be read
+	 */
+	private PreparedStatement prepareAreaQuery(Connection connection, String select, float latitudeMin,
+			float latitudeMax, float longitudeMin, float longitudeMax) throws SQLException {
+		PreparedStatement getStmt;
+		if (spatial) {
+			// the SPATIAL index finds the candidates, the comparisons keep
+			// the bounds exclusive
+			getStmt = connection.prepareStatement(select
+					+ " WHERE MBRContains(ST_GeomFromText(?), e.LOCATION) AND e.LATITUDE < ? AND e.LATITUDE > ? AND e.LONGITUDE < ? AND e.LONGITUDE > ?",
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			getStmt.clearParameters();
+			getStmt.setString(1, envelope(latitudeMin, latitudeMax, longitudeMin, longitudeMax));
+			getStmt.setFloat(2, latitudeMax);
+			getStmt.setFloat(3, latitudeMin);
+			getStmt.setFloat(4, longitudeMax);
+			getStmt.setFloat(5, longitudeMin);
+		} else {
+			getStmt = connection.prepareStatement(
+					select + " WHERE e.LATITUDE < ? AND e.LATITUDE > ? AND e.LONGITUDE < ? AND e.LONGITUDE > ?",
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 			getStmt.clearParameters();
 			getStmt.setFloat(1, latitudeMax);
 			getStmt.setFloat(2, latitudeMin);
 			getStmt.setFloat(3, longitudeMax);
 			getStmt.setFloat(4, longitudeMin);
+		}
+		return getStmt;
+	}
+
+	/**
+	 * Find a page of events based on latitude and longitude, ordered by date
+	 * and id descending. The page starts right after the cursor, so any page
+	 * costs as much as the first one
+	 * 
+	 * @param latitudeMin
+	 * @param latitudeMax
+	 * @param longitudeMin
+	 * @param longitudeMax
+	 * @param limit
+	 *            maximum number of events in the page
+	 * @param after
+	 *            cursor of the previous page, null for the first page
+	 * @return the page of events
+	 * @throws EventDBException
+	 */
+	public EventPage getPageByArea(float latitudeMin, float latitudeMax, float longitudeMin, float longitudeMax,
+			int limit, EventCursor after) throws EventDBException {
+		System.out.println("[DB] Getting page of events by area");
+		try (Connection connection = Database.getConnection()) {
+			StringBuilder query = new StringBuilder(SELECT_EVENTS).append(" WHERE ");
+			if (spatial) {
+				query.append("MBRContains(ST_GeomFromText(?), e.LOCATION) AND ");
+			}
+			query.append("e.LATITUDE < ? AND e.LATITUDE > ? AND e.LONGITUDE < ? AND e.LONGITUDE > ?");
+			if (after != null) {
+				query.append(" AND (e.DATE < ? OR (e.DATE = ? AND e.ID < ?))");
+			}
+			query.append(" ORDER BY e.DATE DESC, e.ID DESC LIMIT ?");
+
+			PreparedStatement getStmt = connection.prepareStatement(query.toString());
+			int i = 1;
+			if (spatial) {
+				getStmt.setString(i++, envelope(latitudeMin, latitudeMax, longitudeMin, longitudeMax));
+			}
+			getStmt.setFloat(i++, latitudeMax);
+			getStmt.setFloat(i++, latitudeMin);
+			getStmt.setFloat(i++, longitudeMax);
+			getStmt.setFloat(i++, longitudeMin);
+			if (after != null) {
+				getStmt.setDate(i++, after.getDate());
+				getStmt.setDate(i++, after.getDate());
+				getStmt.setInt(i++, after.getId());
+			}
+			getStmt.setInt(i++, limit);
 			ResultSet result = getStmt.executeQuery();
-			System.out.println("[DB] Query executed");
 			List<Event> events = new ArrayList<Event>();
-
 			while (result.next()) {
-				Event temp = new Event();
-				temp.setId(result.getInt(1));
-				temp.setDate(result.getDate(2));
-				temp.setEventType(EventType.valueOf(result.getString(3)));
-				temp.setDescription(result.getString(4));
-				temp.setCountry(result.getString(5));
-				temp.setCity(result.getString(6));
-				temp.setStreet(result.getString(7));
-				temp.setLatitude(result.getFloat(8));
-				temp.setLongitude(result.getFloat(9));
-				temp.setSubmitterId(result.getInt(10));
-
-				try {
-					System.out.println("[DB] Finding votes");
-					int votes = getVotes(temp.getId());
-					temp.setVotes(votes);
-					System.out.println("[DB] Found " + votes);
-				} catch (VotesDBException e) {
-					System.out.println("[DB] No votes found");
-					temp.setVotes(0);
-				}
+				events.add(readEvent(result));
+			}
+			System.out.println("[DB] Found " + events.size() + " events");
+			EventCursor next = null;
+			if (events.size() == limit) {
+				next = EventCursor.after(events.get(events.size() - 1));
+			}
+			return new EventPage(events, next);
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.getPageByArea()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR when finding page of events by coordinates", e);
+		}
+	}
 
-				events.add(temp);
+	/**
+	 * Find a page of events within a great circle distance from a position,
+	 * ordered by date and id descending. Pages are taken from the bounding box
+	 * of the circle, so a page may contain less than limit events even if it
+	 * is not the last one
+	 * 
+	 * @param latitude
+	 *            of the center
+	 * @param longitude
+	 *            of the center
+	 * @param meters
+	 *            maximum distance from the center
+	 * @param limit
+	 *            maximum number of events in the page
+	 * @param after
+	 *            cursor of the previous page, null for the first page
+	 * @return the page of events, each with its distance set
+	 * @throws EventDBException
+	 */
+	public EventPage getPageByDistance(float latitude, float longitude, float meters, int limit, EventCursor after)
+			throws EventDBException {
+		float[] box = GeoUtils.boundingBox(latitude, longitude, meters);
+		EventPage candidates = getPageByArea(box[0], box[1], box[2], box[3], limit, after);
+		List<Event> events = new ArrayList<Event>(candidates.getEvents().size());
+		for (Event e : candidates.getEvents()) {
+			double distance = GeoUtils.distance(latitude, longitude, e.getLatitude(), e.getLongitude());
+			if (distance <= meters) {
+				e.setDistance(distance);
+				events.add(e);
+			}
+		}
+		return new EventPage(events, candidates.getNext());
+	}
+
+	/**
+	 * Loads the events with the given ids, ids of events that no longer exist
+	 * are ignored
+	 * 
+	 * @param ids
+	 *            of the events
+	 * @return the list of found events
+	 * @throws EventDBException
+	 */
+	public List<Event> getByIds(int[] ids) throws EventDBException {
+		List<Event> events = new ArrayList<Event>(ids.length);
+		if (ids.length == 0) {
+			return events;
+		}
+		System.out.println("[DB] Getting " + ids.length + " events by id");
+		try (Connection connection = Database.getConnection()) {
+			for (int from = 0; from < ids.length; from += MAX_IDS_PER_QUERY) {
+				ResultSet result = prepareIdsQuery(connection, ids, from).executeQuery();
+				while (result.next()) {
+					events.add(readEvent(result));
+				}
 			}
 			System.out.println("[DB] Found " + events.size() + " events");
 			return events;
 		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
-			System.out.println("[DB] EXCEPTION in EventStorage.getByArea()");
+			System.out.println("[DB] EXCEPTION in EventStorage.getByIds()");
 			System.out.println(e.getMessage());
-			throw new EventDBException("ERROR when finding events by coordinates", e);
+			throw new EventDBException("ERROR when finding events by id", e);
+		}
+	}
+
+	/**
+	 * Prepares the query of at most {@link #MAX_IDS_PER_QUERY} events by id
+	 * 
+	 * @param ids
+	 *            of the events
+	 * @param from
+	 *            index of the first id to be queried
+	 * @return the statement, ready to be executed
+	 * @throws SQLException
+	 */
+	private static PreparedStatement prepareIdsQuery(Connection connection, int[] ids, int from) throws SQLException {
+		int to = Math.min(ids.length, from + MAX_IDS_PER_QUERY);
+		StringBuilder query = new StringBuilder(SELECT_EVENTS).append(" WHERE e.ID IN (");
+		for (int i = from; i < to; i++) {
+			query.append(i == from ? "?" : ",?");
+		}
+		query.append(")");
+		PreparedStatement getStmt = connection.prepareStatement(query.toString());
+		for (int i = from; i < to; i++) {
+			getStmt.setInt(i - from + 1, ids[i]);
 		}
+		return getStmt;
+	}
+
+	/**
+	 * Loads the whole area index from the database, until the first rebuild
+	 * completes area queries are answered by the database
+	 * 
+	 * @throws EventDBException
+	 */
+	public void rebuildIndex() throws EventDBException {
+		System.out.println("[INDEX] Rebuilding events index");
+		try (Connection connection = Database.getConnection()) {
+			// the events deleted while the table is being read are applied
+			// by the refresh that follows
+			long tombstone = tombstones ? getLastTombstone(connection) : 0;
+			int[] ids = new int[1024];
+			float[] latitudes = new float[1024];
+			float[] longitudes = new float[1024];
+			byte[] types = new byte[1024];
+			int count = 0;
+
+			Statement getStmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			// stream the rows instead of buffering the whole table
+			getStmt.setFetchSize(Integer.MIN_VALUE);
+			ResultSet result = getStmt.executeQuery(
+						"SELECT ID, LATITUDE, LONGITUDE, EVENTTYPE FROM gsx95369n3oh2zo6.events");
+			while (result.next()) {
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, count * 2);
+					latitudes = Arrays.copyOf(latitudes, count * 2);
+					longitudes = Arrays.copyOf(longitudes, count * 2);
+					types = Arrays.copyOf(types, count * 2);
+				}
+				ids[count] = result.getInt(1);
+				latitudes[count] = result.getFloat(2);
+				longitudes[count] = result.getFloat(3);
+				types[count] = (byte) EventType.valueOf(result.getString(4)).ordinal();
+				count++;
+			}
+			index.load(ids, latitudes, longitudes, types, count);
+			lastTombstone = tombstone;
+			System.out.println("[INDEX] Indexed " + count + " events");
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.rebuildIndex()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR when rebuilding events index", e);
+		}
+		// catch up with the events created or deleted while the table was being
+		// read
+		refreshIndex();
+	}
+
+	/**
+	 * Adds to the area index the events created after the last indexed one,
+	 * including the ones created by other instances of the application. With
+	 * EVENTS_INDEX_TOMBSTONES also removes from the index and the cache the
+	 * events deleted since the last refresh
+	 * 
+	 * @throws EventDBException
+	 */
+	public void refreshIndex() throws EventDBException {
+		if (!index.isReady()) {
+			return;
+		}
+		try (Connection connection = Database.getConnection()) {
+			PreparedStatement getStmt = connection.prepareStatement(
+					"SELECT ID, LATITUDE, LONGITUDE, EVENTTYPE FROM gsx95369n3oh2zo6.events WHERE ID > ?");
+			getStmt.setInt(1, index.getMaxId());
+			ResultSet result = getStmt.executeQuery();
+			int count = 0;
+			while (result.next()) {
+				index.put(result.getInt(1), result.getFloat(2), result.getFloat(3),
+							EventType.valueOf(result.getString(4)));
+				count++;
+			}
+			if (count > 0) {
+				System.out.println("[INDEX] Added " + count + " new events");
+			}
+			if (tombstones) {
+				applyTombstones(connection);
+			}
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.refreshIndex()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR when refreshing events index", e);
+		}
+	}
+
+	/**
+	 * Removes the events deleted after the last applied tombstone, then
+	 * purges the expired tombstones
+	 */
+	private void applyTombstones(Connection connection) throws SQLException {
+		PreparedStatement getStmt = connection.prepareStatement(
+				"SELECT SEQ, ID FROM gsx95369n3oh2zo6.events_deleted WHERE SEQ > ? ORDER BY SEQ");
+		getStmt.setLong(1, lastTombstone);
+		ResultSet result = getStmt.executeQuery();
+		long last = lastTombstone;
+		int count = 0;
+		while (result.next()) {
+			last = result.getLong(1);
+			index.remove(result.getInt(2));
+			cache.invalidate(result.getInt(2));
+			count++;
+		}
+		lastTombstone = last;
+		if (count > 0) {
+			System.out.println("[INDEX] Removed " + count + " deleted events");
+		}
+
+		// compared with the clock of the database, which wrote them
+		PreparedStatement purgeStmt = connection.prepareStatement(
+				"DELETE FROM gsx95369n3oh2zo6.events_deleted WHERE DELETED < CURRENT_TIMESTAMP - INTERVAL ? MINUTE");
+		purgeStmt.setLong(1, tombstonesRetentionMin);
+		purgeStmt.executeUpdate();
+	}
+
+	private static long getLastTombstone(Connection connection) throws SQLException {
+		ResultSet result = connection.createStatement()
+				.executeQuery("SELECT COALESCE(MAX(SEQ), 0) FROM gsx95369n3oh2zo6.events_deleted");
+		result.next();
+		return result.getLong(1);
 	}
 
 	/**
@@ -169,7 +737,8 @@ public enum EventStorage {
 	 * @param longitude
 	 *            of the center
 	 * @param radius
-	 *            where to search
+	 *            where to search, in degrees: the searched area is a square
+	 *            (see {@link #getByDistance(float, float, float, boolean)})
 	 * @return a list of events in the selected area
 	 * @throws EventDBException
 	 */
@@ -178,7 +747,84 @@ public enum EventStorage {
 	}
 
 	/**
-	 * Find an event given its id
+	 * Find events within a great circle distance from a position. Candidates
+	 * are found with a latitude corrected bounding box, then filtered with the
+	 * exact distance
+	 * 
+	 * @param latitude
+	 *            of the center
+	 * @param longitude
+	 *            of the center
+	 * @param meters
+	 *            maximum distance from the center
+	 * @param sortByDistance
+	 *            if true the nearest events come first
+	 * @return a list of events in the circle, each with its distance set
+	 * @throws EventDBException
+	 */
+	public List<Event> getByDistance(float latitude, float longitude, float meters, boolean sortByDistance)
+			throws EventDBException {
+		float[] box = GeoUtils.boundingBox(latitude, longitude, meters);
+		if (spatial && !index.isReady()) {
+			return getByDistanceSpatial(latitude, longitude, meters, sortByDistance, box);
+		}
+		List<Event> candidates = getByArea(box[0], box[1], box[2], box[3]);
+		List<Event> events = new ArrayList<Event>(candidates.size());
+		for (Event e : candidates) {
+			double distance = GeoUtils.distance(latitude, longitude, e.getLatitude(), e.getLongitude());
+			if (distance <= meters) {
+				e.setDistance(distance);
+				events.add(e);
+			}
+		}
+		if (sortByDistance) {
+			Collections.sort(events, new Comparator<Event>() {
+				@Override
+				public int compare(Event e1, Event e2) {
+					return Double.compare(e1.getDistance(), e2.getDistance());
+				}
+			});
+		}
+		System.out.println("[DB] " + events.size() + " of " + candidates.size() + " events within " + meters + "m");
+		return events;
+	}
+
+	/**
+	 * Distance search computed by the database with the SPATIAL index
+	 * 
+	 * @see #getByDistance(float, float, float, boolean)
+	 */
+	private List<Event> getByDistanceSpatial(float latitude, float longitude, float meters, boolean sortByDistance,
+			float[] box) throws EventDBException {
+		System.out.println("[DB] Getting list of events by distance");
+		try (Connection connection = Database.getConnection()) {
+			PreparedStatement getStmt = connection.prepareStatement("SELECT " + EVENT_COLUMNS
+					+ ", ST_Distance_Sphere(e.LOCATION, POINT(?, ?)) AS DISTANCE FROM gsx95369n3oh2zo6.events e"
+					+ " WHERE MBRContains(ST_GeomFromText(?), e.LOCATION) HAVING DISTANCE <= ?"
+					+ (sortByDistance ? " ORDER BY DISTANCE" : ""));
+			getStmt.setFloat(1, longitude);
+			getStmt.setFloat(2, latitude);
+			getStmt.setString(3, envelope(box[0], box[1], box[2], box[3]));
+			getStmt.setFloat(4, meters);
+			ResultSet result = getStmt.executeQuery();
+			List<Event> events = new ArrayList<Event>();
+			while (result.next()) {
+				Event e = readEvent(result);
+				e.setDistance(result.getDouble(12));
+				events.add(e);
+			}
+			System.out.println("[DB] Found " + events.size() + " events within " + meters + "m");
+			return events;
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in EventStorage.getByDistanceSpatial()");
+			System.out.println(e.getMessage());
+			throw new EventDBException("ERROR when finding events by distance", e);
+		}
+	}
+
+	/**
+	 * Find an event given its id, recently read events are answered from the
+	 * cache
 	 * 
 	 * @param id
 	 *            id of the event
@@ -187,41 +833,28 @@ public enum EventStorage {
 	 * @throws NoEventFoundException
 	 */
 	public Event getById(int id) throws NoEventFoundException, EventDBException {
+		Event cached = cache.get(id);
+		if (cached != null) {
+			return cached;
+		}
+		long stamp = cache.stamp();
+		Event e = load(id);
+		cache.put(id, e, stamp);
+		return e;
+	}
+
+	private Event load(int id) throws NoEventFoundException, EventDBException {
 		System.out.println("[DB] Getting event by id " + id);
 		try (Connection connection = Database.getConnection()) {
 
-			PreparedStatement getStmt = connection.prepareStatement(
-					"SELECT * FROM gsx95369n3oh2zo6.events WHERE ID = ?", ResultSet.TYPE_SCROLL_INSENSITIVE,
-					ResultSet.CONCUR_READ_ONLY);
+			PreparedStatement getStmt = connection.prepareStatement(SELECT_EVENTS + " WHERE e.ID = ?",
+					ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
 			getStmt.clearParameters();
 			getStmt.setInt(1, id);
 			ResultSet result = getStmt.executeQuery();
 			System.out.println("[DB] Query executed");
-			Event temp = null;
 			if (result.next()) {
-				temp = new Event();
-				temp.setId(result.getInt(1));
-				temp.setDate(result.getDate(2));
-				temp.setEventType(EventType.valueOf(result.getString(3)));
-				temp.setDescription(result.getString(4));
-				temp.setCountry(result.getString(5));
-				temp.setCity(result.getString(6));
-				temp.setStreet(result.getString(7));
-				temp.setLatitude(result.getFloat(8));
-				temp.setLongitude(result.getFloat(9));
-				temp.setSubmitterId(result.getInt(10));
-
-				try {
-					System.out.println("[DB] Finding votes");
-					int votes = getVotes(temp.getId());
-					temp.setVotes(votes);
-					System.out.println("[DB] Found " + votes);
-				} catch (VotesDBException e) {
-					System.out.println("[DB] No votes found");
-					temp.setVotes(0);
-				}
-
-				return temp;
+				return readEvent(result);
 			} else {
 				System.out.println("[DB] No event found");
 				throw new NoEventFoundException();
@@ -265,7 +898,7 @@ public enum EventStorage {
 		try (Connection connection = Database.getConnection()) {
 
 			PreparedStatement getStmt = connection.prepareStatement(
-					"SELECT * FROM gsx95369n3oh2zo6.events WHERE SUBMITTERID = ?", ResultSet.TYPE_SCROLL_INSENSITIVE,
+					SELECT_EVENTS + " WHERE e.SUBMITTERID = ?", ResultSet.TYPE_SCROLL_INSENSITIVE,
 					ResultSet.CONCUR_READ_ONLY);
 			getStmt.clearParameters();
 			getStmt.setInt(1, id);
@@ -273,29 +906,7 @@ public enum EventStorage {
 			System.out.println("[DB] Query executed");
 			List<Event> events = new ArrayList<Event>();
 			while (result.next()) {
-				Event temp = new Event();
-				temp.setId(result.getInt(1));
-				temp.setDate(result.getDate(2));
-				temp.setEventType(EventType.valueOf(result.getString(3)));
-				temp.setDescription(result.getString(4));
-				temp.setCountry(result.getString(5));
-				temp.setCity(result.getString(6));
-				temp.setStreet(result.getString(7));
-				temp.setLatitude(result.getFloat(8));
-				temp.setLongitude(result.getFloat(9));
-				temp.setSubmitterId(result.getInt(10));
-				
-				try {
-					System.out.println("[DB] Finding votes");
-					int votes = getVotes(temp.getId());
-					temp.setVotes(votes);
-					System.out.println("[DB] Found " + votes);
-				} catch (VotesDBException e) {
-					System.out.println("[DB] No votes found");
-					temp.setVotes(0);
-				}
-				
-				events.add(temp);
+				events.add(readEvent(result));
 			}
 			System.out.println("[DB] Found "+events.size()+" events");
 			return events;
@@ -306,25 +917,50 @@ public enum EventStorage {
 		}
 	}
 
-	public boolean vote(int userid, int eventid) throws VotesDBException, NoVoteCreatedException {
+	/**
+	 * Adds the vote of a user to an event with a single conditional insert,
+	 * which adds no row if the event or the user does not exist, or if the
+	 * vote already exists (unique key of votes, see sql/votes_unique.sql). The
+	 * VOTES counter of the event is incremented only when the vote is added;
+	 * a counter left behind by a failure in between is fixed by
+	 * {@link VoteCounterReconciler}. Only when nothing is added the event is
+	 * looked up, to tell NO_EVENT from ALREADY_VOTED, and the user, whose
+	 * absence is an error
+	 * 
+	 * @param userid
+	 *            of the voter
+	 * @param eventid
+	 *            of the voted event
+	 * @return CREATED, ALREADY_VOTED or NO_EVENT
+	 * @throws VotesDBException
+	 */
+	public VoteOutcome vote(int userid, int eventid) throws VotesDBException {
 		System.out.println("[DB] Voting by "+userid+" to "+eventid);
 		try (Connection connection = Database.getConnection()) {
-
 			PreparedStatement createStmt = connection.prepareStatement(
-					"INSERT INTO gsx95369n3oh2zo6.votes (USERID, EVENTID) VALUES (?,?)",
-					Statement.RETURN_GENERATED_KEYS);
+					"INSERT IGNORE INTO gsx95369n3oh2zo6.votes (USERID, EVENTID) SELECT ?, e.ID FROM gsx95369n3oh2zo6.events e "
+							+ "WHERE e.ID = ? AND EXISTS (SELECT 1 FROM gsx95369n3oh2zo6.users u WHERE u.ID = ?)");
 			createStmt.clearParameters();
 			createStmt.setInt(1, userid);
 			createStmt.setInt(2, eventid);
-			int result = createStmt.executeUpdate();
+			createStmt.setInt(3, userid);
+			int count = createStmt.executeUpdate();
 			System.out.println("[DB] Update executed");
-			if (result > 0) {
-				System.out.println("[DB] Vote created");
-				return true;
-			} else {
-				System.out.println("[DB] Vote not created");
-				throw new NoVoteCreatedException();
+			if (count == 0) {
+				if (!exists(connection, "events", eventid)) {
+					System.out.println("[DB] No event found");
+					return VoteOutcome.NO_EVENT;
+				}
+				if (!exists(connection, "users", userid)) {
+					throw new SQLException("No user with id " + userid);
+				}
+				System.out.println("[DB] Vote already exists");
+				return VoteOutcome.ALREADY_VOTED;
 			}
+			updateVotesCounter(connection, eventid, 1);
+			cache.invalidate(eventid);
+			System.out.println("[DB] Vote created");
+			return VoteOutcome.CREATED;
 		} catch (ClassNotFoundException | URISyntaxException | SQLException e) {
 			System.out.println("[DB] EXCEPTION in EventStorage.vote()");
 			System.out.println(e.getMessage());
@@ -333,25 +969,41 @@ public enum EventStorage {
 
 	}
 
-	public boolean unvote(int userid, int eventid) throws VotesDBException {
+	/**
+	 * Removes the vote of a user from an event, the VOTES counter of the event
+	 * is decremented only when a vote is deleted. As for
+	 * {@link #vote(int, int)} the event is looked up only when nothing is
+	 * deleted
+	 * 
+	 * @param userid
+	 *            of the voter
+	 * @param eventid
+	 *            of the voted event
+	 * @return REMOVED, NOT_VOTED or NO_EVENT
+	 * @throws VotesDBException
+	 */
+	public VoteOutcome unvote(int userid, int eventid) throws VotesDBException {
 		System.out.println("[DB] Removing vote by "+userid+" from "+eventid);
 		try (Connection connection = Database.getConnection()) {
-
 			PreparedStatement delStmt = connection.prepareStatement(
-					"DELETE FROM gsx95369n3oh2zo6.votes WHERE USERID = ? AND EVENTID = ?",
-					ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+					"DELETE FROM gsx95369n3oh2zo6.votes WHERE USERID = ? AND EVENTID = ?");
 			delStmt.clearParameters();
 			delStmt.setInt(1, userid);
 			delStmt.setInt(2, eventid);
 			int count = delStmt.executeUpdate();
 			System.out.println("[DB] Update executed");
-			if (count > 0) {
-				System.out.println("[DB] Vote removed");
-				return true;
-			} else {
+			if (count == 0) {
+				if (!exists(connection, "events", eventid)) {
+					System.out.println("[DB] No event found");
+					return VoteOutcome.NO_EVENT;
+				}
 				System.out.println("[DB] Vote already removed");
-				return false;
+				return VoteOutcome.NOT_VOTED;
 			}
+			updateVotesCounter(connection, eventid, -1);
+			cache.invalidate(eventid);
+			System.out.println("[DB] Vote removed");
+			return VoteOutcome.REMOVED;
 		} catch (ClassNotFoundException | URISyntaxException | SQLException e) {
 			System.out.println("[DB] EXCEPTION in EventStorage.unvote()");
 			System.out.println(e.getMessage());
@@ -360,6 +1012,15 @@ public enum EventStorage {
 
 	}
 
+	/**
+	 * Counts the votes of an event directly from the votes table, the read
+	 * paths use the VOTES counter of the event instead
+	 * 
+	 * @param eventId
+	 *            of the event
+	 * @return the number of votes
+	 * @throws VotesDBException
+	 */
 	public int getVotes(int eventId) throws VotesDBException {
 		System.out.println("[DB] Getting votes for event "+eventId);
 		try (Connection connection = Database.getConnection()) {
@@ -382,4 +1043,71 @@ public enum EventStorage {
 			throw new VotesDBException("EROR when finding vote", e);
 		}
 	}
+
+	/**
+	 * Builds an event from the current row of a result set obtained with
+	 * {@link #SELECT_EVENTS}
+	 * 
+	 * @param result
+	 *            positioned on the row to be read
+	 * @return the event
+	 * @throws SQLException
+	 */
+	private static Event readEvent(ResultSet result) throws SQLException {
+		Event temp = new Event();
+		temp.setId(result.getInt(1));
+		temp.setDate(result.getDate(2));
+		temp.setEventType(EventType.valueOf(result.getString(3)));
+		temp.setDescription(result.getString(4));
+		temp.setCountry(result.getString(5));
+		temp.setCity(result.getString(6));
+		temp.setStreet(result.getString(7));
+		temp.setLatitude(result.getFloat(8));
+		temp.setLongitude(result.getFloat(9));
+		temp.setSubmitterId(result.getInt(10));
+		temp.setVotes(result.getInt(11));
+		return temp;
+	}
+
+	/**
+	 * Adds delta to the VOTES counter of an event, after a vote has been
+	 * added or removed
+	 * 
+	 * @param connection
+	 * @param eventId
+	 *            of the event
+	 * @param delta
+	 *            to be added
+	 * @throws SQLException
+	 */
+	private static void updateVotesCounter(Connection connection, int eventId, int delta) throws SQLException {
+		PreparedStatement updStmt = connection.prepareStatement(
+				"UPDATE gsx95369n3oh2zo6.events SET VOTES = GREATEST(VOTES + ?, 0) WHERE ID = ?");
+		updStmt.setInt(1, delta);
+		updStmt.setInt(2, eventId);
+		updStmt.executeUpdate();
+	}
+
+	/**
+	 * @param table
+	 *            events or users
+	 * @return true if the table has a row with the given id
+	 */
+	private static boolean exists(Connection connection, String table, int id) throws SQLException {
+		PreparedStatement getStmt = connection
+				.prepareStatement("SELECT 1 FROM gsx95369n3oh2zo6." + table + " WHERE ID = ?");
+		getStmt.setInt(1, id);
+		return getStmt.executeQuery().next();
+	}
+
+	/**
+	 * Rectangle as WKT polygon, with longitude as x and latitude as y as in
+	 * the LOCATION column
+	 * 
+	 * @return the polygon
+	 */
+	private static String envelope(float latitudeMin, float latitudeMax, float longitudeMin, float longitudeMax) {
+		return String.format(Locale.ROOT, "POLYGON((%1$.7f %3$.7f,%2$.7f %3$.7f,%2$.7f %4$.7f,%1$.7f %4$.7f,%1$.7f %3$.7f))",
+				longitudeMin, longitudeMax, latitudeMin, latitudeMax);
+	}
 }
@@ -0,0 +1,47 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Number of events of a given type
+ * 
+ * @author Simone Ripamonti
+ *
+ */
+@XmlRootElement
+public class EventTypeCount {
+	/**
+	 * type of the events
+	 */
+	private EventType eventType;
+	/**
+	 * number of events
+	 */
+	private int count;
+
+	public EventTypeCount() {
+
+	}
+
+	public EventTypeCount(EventType eventType, int count) {
+		this.eventType = eventType;
+		this.count = count;
+	}
+
+	public EventType getEventType() {
+		return eventType;
+	}
+
+	public void setEventType(EventType eventType) {
+		this.eventType = eventType;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+}
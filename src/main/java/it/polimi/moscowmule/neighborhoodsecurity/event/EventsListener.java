@@ -0,0 +1,100 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.EventDBException;
+
+/**
+ * Starts and stops the background jobs of the events.
+ * <ul>
+ * <li>VOTES_RECONCILE_INTERVAL_MIN: minutes between two runs of
+ * {@link VoteCounterReconciler}, 0 disables it (default 60)</li>
+ * <li>VOTES_RECONCILE_BATCH: events checked per query (default 500)</li>
+ * <li>VOTES_RECONCILE_PAUSE_MS: pause between two batches (default 100)</li>
+ * <li>EVENTS_INDEX_ENABLED: answer area queries with the in memory
+ * {@link EventGridIndex} (default true)</li>
+ * <li>EVENTS_INDEX_CELL_MICRODEG: side of an index cell, in millionths of
+ * degree (default 10000)</li>
+ * <li>EVENTS_INDEX_REFRESH_SEC: seconds between two incremental refreshes,
+ * picking up events created by other instances (default 30)</li>
+ * <li>EVENTS_INDEX_REBUILD_MIN: minutes between two full rebuilds, dropping
+ * events deleted by other instances (default 360)</li>
+ * <li>EVENTS_INDEX_TOMBSTONES: the incremental refresh also drops the events
+ * deleted by other instances, see sql/events_deleted.sql (default false)</li>
+ * </ul>
+ * 
+ * Events created or deleted by this instance are applied to the index
+ * immediately by {@link EventStorage}. Without tombstones, events deleted
+ * elsewhere stay in the index until the next rebuild: the events found in
+ * the index are loaded from the database, so they are never returned, but
+ * they would be counted by the clusters, which are then computed by the
+ * database instead.
+ *
+ * The workers of the {@link AddressResolver} are stopped with the context.
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class EventsListener implements ServletContextListener {
+
+	private ScheduledExecutorService scheduler;
+
+	@Override
+	public void contextInitialized(ServletContextEvent sce) {
+		scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "events-jobs");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		long reconcileInterval = Configuration.getLong("VOTES_RECONCILE_INTERVAL_MIN", 60);
+		if (reconcileInterval > 0) {
+			VoteCounterReconciler reconciler = new VoteCounterReconciler(
+					Configuration.getInt("VOTES_RECONCILE_BATCH", 500),
+					Configuration.getLong("VOTES_RECONCILE_PAUSE_MS", 100));
+			scheduler.scheduleWithFixedDelay(reconciler, reconcileInterval, reconcileInterval, TimeUnit.MINUTES);
+		}
+
+		if (Configuration.getBoolean("EVENTS_INDEX_ENABLED", true)) {
+			long rebuildInterval = Configuration.getLong("EVENTS_INDEX_REBUILD_MIN", 360);
+			long refreshInterval = Configuration.getLong("EVENTS_INDEX_REFRESH_SEC", 30);
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						EventStorage.instance.rebuildIndex();
+					} catch (EventDBException e) {
+						// area queries keep going to the database
+					}
+				}
+			}, 0, rebuildInterval, TimeUnit.MINUTES);
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						EventStorage.instance.refreshIndex();
+					} catch (EventDBException e) {
+						// retried at the next refresh
+					}
+				}
+			}, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent sce) {
+		scheduler.shutdownNow();
+		AddressResolver.instance.shutdown();
+	}
+
+}
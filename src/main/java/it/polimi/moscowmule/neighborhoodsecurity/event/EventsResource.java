@@ -1,69 +1,111 @@
 package it.polimi.moscowmule.neighborhoodsecurity.event;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.URL;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
-import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
-import org.apache.commons.httpclient.util.URIUtil;
 import org.apache.commons.lang.math.NumberUtils;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
-import it.polimi.moscowmule.neighborhoodsecurity.authentication.Authenticator;
+import it.polimi.moscowmule.neighborhoodsecurity.authentication.UserPrincipal;
+import it.polimi.moscowmule.neighborhoodsecurity.geocoding.Geocoder;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.Message;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.ProjectConstants;
-import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.AuthorizationDBException;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.async.BoundedExecutor;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.EventDBException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoEventCreatedException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoEventFoundException;
-import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoUserFoundException;
-import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoVoteCreatedException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.VotesDBException;
 /**
  * Resource representing events
  * <ul>
  * <li>GET /events</li>
+ * <li>GET /events/clusters</li>
  * <li>POST /events</li>
  * <li>GET /events/{id}</li>
  * <li>DELETE /events/{id}</li>
  * <li>POST /events/{id}/vote</li>
  * <li>DELETE /events/{id}/vote</li>
  * </ul>
+ * The requests are suspended and the database and geocoding work runs on the
+ * {@link BoundedExecutor}s, SERVICE_UNAVAILABLE is returned when they are
+ * full.
  * @author Simone Ripamonti
  *
  */
 @Path("/events")
 public class EventsResource {
+	/**
+	 * page size when only the cursor is given
+	 */
+	private static final int DEFAULT_PAGE_SIZE = Configuration.getInt("EVENTS_PAGE_DEFAULT", 100);
+	/**
+	 * upper bound of the page size
+	 */
+	private static final int MAX_PAGE_SIZE = Configuration.getInt("EVENTS_PAGE_MAX", 500);
+	/**
+	 * stream unpaged JSON area searches instead of building them in memory
+	 */
+	private static final boolean STREAMING = Configuration.getBoolean("EVENTS_STREAMING", true);
+	/**
+	 * events written between two flushes of a streamed response
+	 */
+	private static final int STREAMING_FLUSH_EVERY = Configuration.getInt("EVENTS_STREAMING_FLUSH", 100);
+	/**
+	 * clusters along the side of a map tile
+	 */
+	private static final int CLUSTER_CELLS_PER_TILE = Configuration.getInt("EVENTS_CLUSTER_CELLS_PER_TILE", 4);
+	/**
+	 * upper bound of the cells covering the requested area, larger cells are
+	 * used when a wide area comes with a deep zoom
+	 */
+	private static final int CLUSTER_MAX_CELLS = Math.max(4, Configuration.getInt("EVENTS_CLUSTER_MAX_CELLS", 1024));
+	/**
+	 * deepest zoom level accepted for clustering
+	 */
+	private static final int MAX_ZOOM = 22;
+
 	@Context
 	UriInfo uriInfo;
 	@Context
 	Request request;
+	@Context
+	HttpHeaders headers;
+	@Context
+	SecurityContext securityContext;
 
 	/**
-	 * Lists events, two ways are provided to filter events Uses
-	 * latMin+latMax+lonMin+lonMax XOR lat+lon+radius
+	 * Lists events, three ways are provided to filter events Uses
+	 * latMin+latMax+lonMin+lonMax XOR lat+lon+radius XOR lat+lon+rad
 	 * 
 	 * For a rectangle area search
 	 * 
@@ -76,48 +118,249 @@ public class EventsResource {
 	 * @param lat
 	 * @param lon
 	 * @param radius
+	 *            in meters, each event reports its distance from the center
+	 * @param sort
+	 *            "distance" to get the nearest events first, BAD_REQUEST
+	 *            with pagination
+	 * @param rad
+	 *            in degrees, searches a square around the center (legacy)
+	 * 
+	 *            Pagination, for rectangle and radius searches
+	 * @param limit
+	 *            maximum number of events per page, the newest come first
+	 * @param cursor
+	 *            opaque position of the page, taken from the "next" Link
+	 *            header of the previous page
 	 * @return list of events matching the parameters (if any), or BAD_REQUEST
 	 */
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response listEvents(@DefaultValue("") @QueryParam("latMin") String latMin,
-			@DefaultValue("") @QueryParam("latMax") String latMax,
-			@DefaultValue("") @QueryParam("lonMin") String lonMin,
-			@DefaultValue("") @QueryParam("lonMax") String lonMax, @DefaultValue("") @QueryParam("lat") String lat,
-			@DefaultValue("") @QueryParam("lon") String lon, @DefaultValue("") @QueryParam("rad") String rad) {
-		if (NumberUtils.isNumber(latMin) && NumberUtils.isNumber(latMax) && NumberUtils.isNumber(lonMin)
-				&& NumberUtils.isNumber(lonMax)) {
-			Float latitudeMin, latitudeMax, longitudeMin, longitudeMax;
-			latitudeMin = NumberUtils.toFloat(latMin);
-			latitudeMax = NumberUtils.toFloat(latMax);
-			longitudeMin = NumberUtils.toFloat(lonMin);
-			longitudeMax = NumberUtils.toFloat(lonMax);
-
-			try {
-				List<Event> events = EventStorage.instance.getByArea(latitudeMin, latitudeMax, longitudeMin,
-						longitudeMax);
-				return Response.ok(events).build();
-			} catch (EventDBException e) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
+	public void listEvents(@Suspended AsyncResponse response,
+			@DefaultValue("") @QueryParam("latMin") final String latMin,
+			@DefaultValue("") @QueryParam("latMax") final String latMax,
+			@DefaultValue("") @QueryParam("lonMin") final String lonMin,
+			@DefaultValue("") @QueryParam("lonMax") final String lonMax,
+			@DefaultValue("") @QueryParam("lat") final String lat, @DefaultValue("") @QueryParam("lon") final String lon,
+			@DefaultValue("") @QueryParam("radius") final String radius,
+			@DefaultValue("") @QueryParam("sort") final String sort, @DefaultValue("") @QueryParam("rad") final String rad,
+			@DefaultValue("") @QueryParam("limit") final String limit,
+			@DefaultValue("") @QueryParam("cursor") final String cursor) {
+		// read on the request thread, the work runs on another one
+		final boolean json = acceptsJson();
+		final UriBuilder requestUri = uriInfo.getRequestUriBuilder();
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				// pagination
+				boolean paged = !limit.isEmpty() || !cursor.isEmpty();
+				int pageSize = 0;
+				EventCursor after = null;
+				if (paged) {
+					if (sort.equals("distance")) {
+						return Response.status(Status.BAD_REQUEST)
+								.entity(new Message("EVENTS", "Sorting by distance is not available with pagination"))
+								.build();
+					}
+					if (!limit.isEmpty() && (!NumberUtils.isDigits(limit) || NumberUtils.toInt(limit) <= 0)) {
+						return Response.status(Status.BAD_REQUEST)
+								.entity(new Message("EVENTS", "Limit must be a valid positive integer!")).build();
+					}
+					pageSize = Math.min(NumberUtils.toInt(limit, DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+					if (!cursor.isEmpty()) {
+						after = EventCursor.decode(cursor);
+						if (after == null) {
+							return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Cursor is not valid!"))
+									.build();
+						}
+					}
+				}
+
+				if (NumberUtils.isNumber(latMin) && NumberUtils.isNumber(latMax) && NumberUtils.isNumber(lonMin)
+						&& NumberUtils.isNumber(lonMax)) {
+					Float latitudeMin, latitudeMax, longitudeMin, longitudeMax;
+					latitudeMin = NumberUtils.toFloat(latMin);
+					latitudeMax = NumberUtils.toFloat(latMax);
+					longitudeMin = NumberUtils.toFloat(lonMin);
+					longitudeMax = NumberUtils.toFloat(lonMax);
+
+					try {
+						if (paged) {
+							return page(EventStorage.instance.getPageByArea(latitudeMin, latitudeMax, longitudeMin,
+									longitudeMax, pageSize, after), requestUri);
+						}
+						if (STREAMING && json) {
+							return Response.ok(streamByArea(latitudeMin, latitudeMax, longitudeMin, longitudeMax),
+									MediaType.APPLICATION_JSON_TYPE).build();
+						}
+						List<Event> events = EventStorage.instance.getByArea(latitudeMin, latitudeMax, longitudeMin,
+								longitudeMax);
+						return Response.ok(events).build();
+					} catch (EventDBException e) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
+					}
+				}
+				if (NumberUtils.isNumber(lat) && NumberUtils.isNumber(lon) && NumberUtils.isNumber(radius)) {
+					float latitude = NumberUtils.toFloat(lat);
+					float longitude = NumberUtils.toFloat(lon);
+					float meters = NumberUtils.toFloat(radius);
+					if (meters <= 0) {
+						return Response.status(Status.BAD_REQUEST)
+								.entity(new Message("EVENTS", "Radius must be a positive number of meters")).build();
+					}
+
+					try {
+						if (paged) {
+							return page(EventStorage.instance.getPageByDistance(latitude, longitude, meters, pageSize, after), requestUri);
+						}
+						List<Event> events = EventStorage.instance.getByDistance(latitude, longitude, meters,
+								sort.equals("distance"));
+						return Response.ok(events).build();
+					} catch (EventDBException e) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
+					}
+				}
+				if (NumberUtils.isNumber(lat) && NumberUtils.isNumber(lon) && NumberUtils.isNumber(rad)) {
+					Float latitude, longitude, degrees;
+					latitude = NumberUtils.toFloat(lat);
+					longitude = NumberUtils.toFloat(lon);
+					degrees = NumberUtils.toFloat(rad);
+
+					try {
+						List<Event> events = EventStorage.instance.getByRadius(latitude, longitude, degrees);
+						return Response.ok(events).build();
+
+					} catch (EventDBException e) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
+
+					}
+				}
+				return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Please check the parameters!"))
+						.build();
 			}
-		}
-		if (NumberUtils.isNumber(lat) && NumberUtils.isNumber(lon) && NumberUtils.isNumber(rad)) {
-			Float latitude, longitude, radius;
-			latitude = NumberUtils.toFloat(lat);
-			longitude = NumberUtils.toFloat(lon);
-			radius = NumberUtils.toFloat(rad);
+		});
+	}
 
-			try {
-				List<Event> events = EventStorage.instance.getByRadius(latitude, longitude, radius);
-				return Response.ok(events).build();
+	/**
+	 * Groups the events of an area in cells whose size depends on the zoom
+	 * level of the map, so that zoomed out views receive a bounded number of
+	 * clusters instead of every event. The cells grow when the area would be
+	 * covered by more than EVENTS_CLUSTER_MAX_CELLS of them
+	 *
+	 * @param bbox
+	 *            area as "lonMin,latMin,lonMax,latMax"
+	 * @param zoom
+	 *            map zoom level, 0 (whole world) to 22
+	 * @return list of clusters, or BAD_REQUEST
+	 */
+	@GET
+	@Path("clusters")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public void listClusters(@Suspended AsyncResponse response,
+			@DefaultValue("") @QueryParam("bbox") final String bbox,
+			@DefaultValue("") @QueryParam("zoom") final String zoom) {
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				String[] corners = bbox.split(",");
+				if (corners.length != 4 || !NumberUtils.isNumber(corners[0]) || !NumberUtils.isNumber(corners[1])
+						|| !NumberUtils.isNumber(corners[2]) || !NumberUtils.isNumber(corners[3])) {
+					return Response.status(Status.BAD_REQUEST)
+							.entity(new Message("EVENTS", "Bbox must be lonMin,latMin,lonMax,latMax")).build();
+				}
+				if (!NumberUtils.isDigits(zoom) || NumberUtils.toInt(zoom) > MAX_ZOOM) {
+					return Response.status(Status.BAD_REQUEST)
+							.entity(new Message("EVENTS", "Zoom must be an integer between 0 and " + MAX_ZOOM)).build();
+				}
+				float longitudeMin = NumberUtils.toFloat(corners[0]);
+				float latitudeMin = NumberUtils.toFloat(corners[1]);
+				float longitudeMax = NumberUtils.toFloat(corners[2]);
+				float latitudeMax = NumberUtils.toFloat(corners[3]);
+				// a map tile spans 360 / 2^zoom degrees of longitude
+				double cellSize = 360.0 / (1L << NumberUtils.toInt(zoom)) / CLUSTER_CELLS_PER_TILE;
+				while (cellsCovering(latitudeMin, latitudeMax, cellSize)
+						* cellsCovering(longitudeMin, longitudeMax, cellSize) > CLUSTER_MAX_CELLS) {
+					cellSize *= 2;
+				}
+
+				try {
+					List<EventCluster> clusters = EventStorage.instance.getClusters(latitudeMin, latitudeMax, longitudeMin,
+							longitudeMax, cellSize);
+					return Response.ok(new GenericEntity<List<EventCluster>>(clusters) {
+					}).build();
+				} catch (EventDBException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the number of cells of the given size spanned by an interval,
+	 *         that may not start on a cell boundary
+	 */
+	private static double cellsCovering(float min, float max, double cellSize) {
+		return Math.floor(Math.max(0, max - min) / cellSize) + 1;
+	}
 
-			} catch (EventDBException e) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
+	/**
+	 * JSON body written while the events are read from the database, in
+	 * batches, so that the memory used by the request depends on the number
+	 * of events only through their ids, and slow clients do not keep database
+	 * connections busy
+	 * 
+	 * @return the streaming body
+	 */
+	private StreamingOutput streamByArea(final float latitudeMin, final float latitudeMax, final float longitudeMin,
+			final float longitudeMax) {
+		return new StreamingOutput() {
+			@Override
+			public void write(OutputStream output) throws IOException, WebApplicationException {
+				EventJsonWriter writer = new EventJsonWriter(output, STREAMING_FLUSH_EVERY);
+				try {
+					EventStorage.instance.streamByArea(latitudeMin, latitudeMax, longitudeMin, longitudeMax, writer);
+				} catch (EventDBException e) {
+					// only reaches the client as a 500 if nothing has been
+					// flushed yet, otherwise the response is truncated
+					throw new WebApplicationException(e, Status.INTERNAL_SERVER_ERROR);
+				}
+				writer.close();
+			}
+		};
+	}
 
+	/**
+	 * @return true if the client prefers JSON over XML
+	 */
+	private boolean acceptsJson() {
+		for (MediaType type : headers.getAcceptableMediaTypes()) {
+			if (type.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+				return true;
+			}
+			if (type.isCompatible(MediaType.APPLICATION_XML_TYPE)) {
+				return false;
 			}
 		}
-		return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Please check the parameters!"))
-				.build();
+		return true;
+	}
+
+	/**
+	 * Builds the response for a page of events, with a Link header to the
+	 * next page if there is one
+	 * 
+	 * @param page
+	 *            of events
+	 * @param requestUri
+	 *            builder of the URI of the request
+	 * @return OK with the events of the page
+	 */
+	private static Response page(EventPage page, UriBuilder requestUri) {
+		ResponseBuilder response = Response.ok(new GenericEntity<List<Event>>(page.getEvents()) {
+		});
+		if (page.getNext() != null) {
+			URI next = requestUri.replaceQueryParam("cursor", page.getNext().encode()).build();
+			response.links(Link.fromUri(next).rel("next").build());
+		}
+		return response.build();
 	}
 
 	/**
@@ -142,8 +385,11 @@ public class EventsResource {
 	 * @param longitude
 	 *            of the event
 	 * 
-	 * @param authToken
-	 *            (mandatory), used to assign the creator to the event
+	 *            When given as coordinates, country, city and street are
+	 *            resolved by the {@link AddressResolver} after the creation
+	 * 
+	 *            The auth token (mandatory) is used to assign the creator to
+	 *            the event
 	 * @return UNAUTHORIZED if auth_token is invalid, BAD_REQUEST if the event
 	 *         cannot be created with that parameters, CREATED if the event was
 	 *         successfully created
@@ -151,87 +397,113 @@ public class EventsResource {
 	@POST
 	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response createEvent(@FormParam("eventType") String eventType, @FormParam("description") String description,
-			@FormParam("country") String country, @FormParam("city") String city, @FormParam("street") String street,
-			@FormParam("latitude") String latitude, @FormParam("longitude") String longitude,
-			@HeaderParam(ProjectConstants.AUTH_TOKEN) String authToken) {
-
-		int userId;
-		try {
-			userId = Authenticator.getUserId(authToken);
-		} catch (AuthorizationDBException e2) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("AUTHORIZATION", e2.getMessage()))
-					.build();
-		} catch (NoUserFoundException e2) {
-			return Response.status(Status.UNAUTHORIZED)
-					.entity(new Message("AUTHORIZTION", "Your auth token is not valid!")).build();
-		}
+	public void createEvent(@Suspended AsyncResponse response, @FormParam("eventType") final String eventType,
+			@FormParam("description") final String description, @FormParam("country") final String country,
+			@FormParam("city") final String city, @FormParam("street") final String street,
+			@FormParam("latitude") final String latitude, @FormParam("longitude") final String longitude) {
+		final UserPrincipal principal = UserPrincipal.of(securityContext);
+		// the geocoding service is called before the insert, unless coordinates
+		// are given and the address is resolved later
+		boolean byCoordinates = NumberUtils.isNumber(latitude) && NumberUtils.isNumber(longitude);
+		BoundedExecutor executor = byCoordinates && AddressResolver.instance.isEnabled() ? BoundedExecutor.DB
+				: BoundedExecutor.GEOCODING;
+		executor.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (principal == null) {
+					return Response.status(Status.UNAUTHORIZED)
+							.entity(new Message("AUTHORIZTION", "Your auth token is not valid!")).build();
+				}
+				int userId = principal.getUserId();
+
+				EventType et = EventType.valueOf(eventType);
+
+				if (NumberUtils.isNumber(latitude) && NumberUtils.isNumber(longitude)) {
+					float lat = NumberUtils.toFloat(latitude);
+					float lon = NumberUtils.toFloat(longitude);
+
+					Event e = new Event();
+					boolean async = AddressResolver.instance.isEnabled();
+					if (!async) {
+						// get country, city, street
+						try {
+							String[] address = Geocoder.instance.getAddress(lat, lon);
+							if (address != null) {
+								e.setCountry(address[0]);
+								e.setCity(address[1]);
+								e.setStreet(address[2]);
+							}
+						} catch (IOException e1) {
+							// the event is created without address
+							System.out.println("[GEOCODING] " + e1.getMessage());
+						}
+					}
+					e.setEventType(et);
+					e.setLatitude(lat);
+					e.setLongitude(lon);
+					e.setSubmitterId(userId);
 
-		EventType et = EventType.valueOf(eventType);
-
-		if (NumberUtils.isNumber(latitude) && NumberUtils.isNumber(longitude)) {
-			float lat = NumberUtils.toFloat(latitude);
-			float lon = NumberUtils.toFloat(longitude);
-
-			// get country, city, street
-			String[] address = getAddress(lat, lon);
-
-			Event e = new Event();
-			e.setCountry(address[0]);
-			e.setCity(address[1]);
-			e.setStreet(address[2]);
-			e.setEventType(et);
-			e.setLatitude(lat);
-			e.setLongitude(lon);
-			e.setSubmitterId(userId);
-
-			int id;
-			try {
-				id = EventStorage.instance.add(e);
-			} catch (EventDBException e1) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage()))
-						.build();
-			} catch (NoEventCreatedException e1) {
-				return Response.status(Status.BAD_REQUEST)
-						.entity(new Message("EVENTS", "Please check the passed parameters!")).build();
-			}
-			return Response.created(URI.create(ProjectConstants.EVENTS_BASE_URL + "/" + String.valueOf(id))).build();
+					int id;
+					try {
+						id = EventStorage.instance.add(e);
+					} catch (EventDBException e1) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage()))
+								.build();
+					} catch (NoEventCreatedException e1) {
+						return Response.status(Status.BAD_REQUEST)
+								.entity(new Message("EVENTS", "Please check the passed parameters!")).build();
+					}
+					if (async) {
+						// country, city and street are filled in later
+						AddressResolver.instance.submit(id, lat, lon);
+					}
+					return Response.created(URI.create(ProjectConstants.EVENTS_BASE_URL + "/" + String.valueOf(id))).build();
 
-		} else {
-			float[] coordinates = getCoordinates(country, city, street);
+				} else {
+					float[] coordinates;
+					try {
+						coordinates = Geocoder.instance.getCoordinates(country, city, street);
+					} catch (IOException e1) {
+						System.out.println("[GEOCODING] " + e1.getMessage());
+						return Response.status(Status.SERVICE_UNAVAILABLE)
+								.entity(new Message("EVENTS", "Cannot find the coordinates now, please retry later"))
+								.build();
+					}
 
-			if (coordinates == null) {
-				// cannot find coordinates, aborting
-				return Response.status(Status.BAD_REQUEST)
-						.entity(new Message("EVENTS", "Please provide valid city-street-address or coordinates"))
-						.build();
-			}
+					if (coordinates == null) {
+						// cannot find coordinates, aborting
+						return Response.status(Status.BAD_REQUEST)
+								.entity(new Message("EVENTS", "Please provide valid city-street-address or coordinates"))
+								.build();
+					}
 
-			float lat = coordinates[0];
-			float lon = coordinates[1];
-
-			// valid coordinates found, save the new event
-			Event e = new Event();
-			e.setCountry(country);
-			e.setCity(city);
-			e.setStreet(street);
-			e.setEventType(et);
-			e.setLatitude(lat);
-			e.setLongitude(lon);
-			e.setSubmitterId(userId);
-
-			int id;
-			try {
-				id = EventStorage.instance.add(e);
-			} catch (EventDBException e1) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage()))
-						.build();
-			} catch (NoEventCreatedException e1) {
-				return Response.status(Status.BAD_REQUEST)
-						.entity(new Message("EVENTS", "Please check the passed parameters!")).build();
+					float lat = coordinates[0];
+					float lon = coordinates[1];
+
+					// valid coordinates found, save the new event
+					Event e = new Event();
+					e.setCountry(country);
+					e.setCity(city);
+					e.setStreet(street);
+					e.setEventType(et);
+					e.setLatitude(lat);
+					e.setLongitude(lon);
+					e.setSubmitterId(userId);
+
+					int id;
+					try {
+						id = EventStorage.instance.add(e);
+					} catch (EventDBException e1) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage()))
+								.build();
+					} catch (NoEventCreatedException e1) {
+						return Response.status(Status.BAD_REQUEST)
+								.entity(new Message("EVENTS", "Please check the passed parameters!")).build();
+					}
+					return Response.created(URI.create(ProjectConstants.EVENTS_BASE_URL + "/" + String.valueOf(id))).build();
+				}
 			}
-			return Response.created(URI.create(ProjectConstants.EVENTS_BASE_URL + "/" + String.valueOf(id))).build();
-		}
+		});
 	}
 
 	/**
@@ -244,291 +516,173 @@ public class EventsResource {
 	@Path("{id}")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getEventById(@PathParam("id") String id) {
-		if (NumberUtils.isNumber(id)) {
-			Event e;
-			try {
-				e = EventStorage.instance.getById(NumberUtils.toInt(id));
-				return Response.ok(e).build();
-			} catch (NoEventFoundException e1) {
-				return Response.status(Status.NOT_FOUND)
-						.entity(new Message("EVENTS", "No event with id " + id + " has been found")).build();
-
-			} catch (EventDBException e1) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage()))
-						.build();
+	public void getEventById(@Suspended AsyncResponse response, @PathParam("id") final String id) {
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (NumberUtils.isNumber(id)) {
+					Event e;
+					try {
+						e = EventStorage.instance.getById(NumberUtils.toInt(id));
+						return Response.ok(e).build();
+					} catch (NoEventFoundException e1) {
+						return Response.status(Status.NOT_FOUND)
+								.entity(new Message("EVENTS", "No event with id " + id + " has been found")).build();
+
+					} catch (EventDBException e1) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage()))
+								.build();
 
+					}
+				}
+				return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Id must be a valid positive integer!"))
+						.build();
 			}
-		}
-		return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Id must be a valid positive integer!"))
-				.build();
-
+		});
 	}
 
 	/**
-	 * Removes the event with the specified id
+	 * Removes the event with the specified id, only its submitter or a
+	 * superuser can do it
 	 * 
 	 * @param id
 	 *            of the event
 	 * @return NO_CONTENT if delete was successfull, NOT_FOUND if there is no
-	 *         event with that id, BAD_REQUEST if id is not valid
+	 *         event with that id, UNAUTHORIZED if the user cannot remove it,
+	 *         BAD_REQUEST if id is not valid
 	 */
 	@DELETE
 	@Path("{id}")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response deleteEvent(@PathParam("id") String id,
-			@HeaderParam(ProjectConstants.AUTH_TOKEN) String authToken) {
-		if (NumberUtils.isNumber(id)) {
-
-			// find who is requesting the delete
-			int requestingUser;
-			try {
-				requestingUser = Authenticator.getUserId(authToken);
-			} catch (AuthorizationDBException e2) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR)
-						.entity(new Message("AUHTORIZATION", e2.getMessage())).build();
-			} catch (NoUserFoundException e2) {
-				return Response.status(Status.UNAUTHORIZED)
-						.entity(new Message("AUTHORIZATION", "Your auth token is not valid!")).build();
-			}
-			// find if he is superuser
-			boolean superuser;
-			try {
-				superuser = Authenticator.isSuperuser(requestingUser);
-			} catch (NoUserFoundException e1) {
-				// should never happen!
-				return Response.status(Status.INTERNAL_SERVER_ERROR)
-						.entity(new Message("AUTHORIZATION", "User disappeared! Something went really wrong :("))
-						.build();
-			} catch (AuthorizationDBException e1) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR)
-						.entity(new Message("AUTHORIZATION", e1.getMessage())).build();
-			}
-
-			// find the owner of the event
-			int ownerUser;
-			try {
-				ownerUser = EventStorage.instance.getSubmitter(NumberUtils.toInt(id));
-			} catch (EventDBException e) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage()))
-						.build();
-			} catch (NoEventFoundException e) {
-				return Response.status(Status.NOT_FOUND).entity(new Message("EVENTS", "No event with id " + id))
-						.build();
-			}
-
-			if (requestingUser != ownerUser || !superuser) {
-				return Response.status(Status.UNAUTHORIZED)
-						.entity(new Message("AUTHORIZATION", "You are not the owner of event " + id)).build();
-			}
-
-			boolean result;
-			try {
-				result = EventStorage.instance.remove(NumberUtils.toInt(id));
-			} catch (EventDBException e) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage()))
+	public void deleteEvent(@Suspended AsyncResponse response, @PathParam("id") final String id) {
+		final UserPrincipal principal = UserPrincipal.of(securityContext);
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (NumberUtils.isNumber(id)) {
+
+					// find who is requesting the delete
+					if (principal == null) {
+						return Response.status(Status.UNAUTHORIZED)
+								.entity(new Message("AUTHORIZATION", "Your auth token is not valid!")).build();
+					}
+					int requestingUser = principal.getUserId();
+					// ownership check and delete in a single statement
+					RemoveOutcome outcome;
+					try {
+						outcome = EventStorage.instance.removeIfAuthorized(NumberUtils.toInt(id), requestingUser);
+					} catch (EventDBException e) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage()))
+								.build();
+					}
+					switch (outcome) {
+					case NOT_FOUND:
+						return Response.status(Status.NOT_FOUND).entity(new Message("EVENTS", "No event with id " + id))
+								.build();
+					case FORBIDDEN:
+						return Response.status(Status.UNAUTHORIZED)
+								.entity(new Message("AUTHORIZATION", "You are not the owner of event " + id)).build();
+					default:
+						return Response.status(Status.NO_CONTENT).build();
+					}
+				}
+				return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Id must be a valid positive integer!"))
 						.build();
 			}
-			if (result) {
-				return Response.status(Status.NO_CONTENT).build();
-			}
-		}
-		return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Id must be a valid positive integer!"))
-				.build();
+		});
 	}
 
+	/**
+	 * Adds the vote of the authenticated user to an event
+	 * 
+	 * @param eventId
+	 *            of the event
+	 * @return NO_CONTENT if the vote exists after the call, NOT_FOUND if there
+	 *         is no event with that id, BAD_REQUEST if id is not valid
+	 */
 	@POST
 	@Path("{id}/vote")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response vote(@PathParam("id") String eventId, @HeaderParam(ProjectConstants.AUTH_TOKEN) String authToken) {
-
-		// check if user is valid
-		int userId;
-		try {
-			userId = Authenticator.getUserId(authToken);
-		} catch (AuthorizationDBException e2) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("AUTHORIZATION", e2.getMessage()))
-					.build();
-		} catch (NoUserFoundException e2) {
-			return Response.status(Status.UNAUTHORIZED)
-					.entity(new Message("AUTHORIZATION", "Your auth token is not valid!")).build();
-		}
-
-		// check if event is valid
-		try {
-			EventStorage.instance.getById(NumberUtils.toInt(eventId));
-		} catch (NoEventFoundException e1) {
-			return Response.status(Status.NOT_FOUND)
-					.entity(new Message("EVENTS", "No event with id " + eventId + " has been found")).build();
-		} catch (EventDBException e1) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage())).build();
-		}
-
-		// submit the vote
-		if (NumberUtils.isNumber(eventId)) {
-			try {
-				boolean result = EventStorage.instance.vote(userId, NumberUtils.toInt(eventId));
-				if (result) {
-					return Response.status(Status.NO_CONTENT).build();
-				} else {
-					return Response.status(Status.NO_CONTENT)
-							.entity(new Message("EVENTS", "This user already voted this event!")).build();
+	public void vote(@Suspended AsyncResponse response, @PathParam("id") final String eventId) {
+		final UserPrincipal principal = UserPrincipal.of(securityContext);
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (!NumberUtils.isDigits(eventId)) {
+					return Response.status(Status.BAD_REQUEST)
+							.entity(new Message("EVENTS", "Id must be a valid positive integer!")).build();
 				}
-			} catch (VotesDBException e) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage()))
-						.build();
-			} catch (NoVoteCreatedException e) {
-				return Response.status(Status.NO_CONTENT)
-						.entity(new Message("EVENTS", "This user already voted this event!")).build();
-			}
-		}
-		return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Id must be a valid positive integer!"))
-				.build();
-	}
 
-	@DELETE
-	@Path("{id}/vote")
-	public Response unvote(@PathParam("id") String eventId, @HeaderParam(ProjectConstants.AUTH_TOKEN) String authToken) {
-		// check if user is valid
-				int userId;
-				try {
-					userId = Authenticator.getUserId(authToken);
-				} catch (AuthorizationDBException e2) {
-					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("AUTHORIZATION", e2.getMessage()))
-							.build();
-				} catch (NoUserFoundException e2) {
+				// check if user is valid
+				if (principal == null) {
 					return Response.status(Status.UNAUTHORIZED)
 							.entity(new Message("AUTHORIZATION", "Your auth token is not valid!")).build();
 				}
-
-				// check if event is valid
-				try {
-					EventStorage.instance.getById(NumberUtils.toInt(eventId));
-				} catch (NoEventFoundException e1) {
-					return Response.status(Status.NOT_FOUND)
-							.entity(new Message("EVENTS", "No event with id " + eventId + " has been found")).build();
-				} catch (EventDBException e1) {
-					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e1.getMessage())).build();
-				}
+				int userId = principal.getUserId();
 
 				// submit the vote
-				if (NumberUtils.isNumber(eventId)) {
-					try {
-						boolean result = EventStorage.instance.unvote(userId, NumberUtils.toInt(eventId));
-						if (result) {
-							return Response.status(Status.NO_CONTENT).entity(new Message("EVENTS", "Vote deleted")).build();
-						} else {
-							return Response.status(Status.NO_CONTENT)
-									.entity(new Message("EVENTS", "Vote already doesn't exist!")).build();
-						}
-					} catch (VotesDBException e) {
-						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage()))
-								.build();
+				try {
+					switch (EventStorage.instance.vote(userId, NumberUtils.toInt(eventId))) {
+					case NO_EVENT:
+						return Response.status(Status.NOT_FOUND)
+								.entity(new Message("EVENTS", "No event with id " + eventId + " has been found")).build();
+					case ALREADY_VOTED:
+						return Response.status(Status.NO_CONTENT)
+								.entity(new Message("EVENTS", "This user already voted this event!")).build();
+					default:
+						return Response.status(Status.NO_CONTENT).build();
 					}
+				} catch (VotesDBException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
 				}
-				return Response.status(Status.BAD_REQUEST).entity(new Message("EVENTS", "Id must be a valid positive integer!"))
-						.build();
-	}
-
-	/**
-	 * Find coordinates given country, city and street
-	 * 
-	 * @param country
-	 * @param city
-	 * @param street
-	 * @return [latitude, longitude] if found, otherwise null
-	 */
-	private float[] getCoordinates(String country, String city, String street) {
-		String union = country + ", " + city + ", " + street;
-		URL url;
-		try {
-			url = new URL("http://maps.googleapis.com/maps/api/geocode/json?address=" + URIUtil.encodeQuery(union)
-					+ "&sensor=true");
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-			conn.setRequestMethod("GET");
-			conn.setRequestProperty("Accept", "application/json");
-			if (conn.getResponseCode() != 200) {
-				return null;
-			}
-			BufferedReader br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
-			String output = "", json = "";
-			while ((output = br.readLine()) != null) {
-				json += output;
-			}
-
-			JSONObject obj = new JSONObject(json);
-			String latString = (String) obj.getJSONArray("results").getJSONObject(0).getJSONObject("geometry")
-					.getJSONObject("location").get("latitude");
-			String lonString = (String) obj.getJSONArray("results").getJSONObject(0).getJSONObject("geometry")
-					.getJSONObject("location").get("longitude");
-
-			if (NumberUtils.isNumber(latString) && NumberUtils.isNumber(lonString)) {
-				float lat = NumberUtils.toFloat(latString);
-				float lon = NumberUtils.toFloat(lonString);
-				float[] result = { lat, lon };
-				return result;
 			}
-
-		} catch (IOException e) {
-			return null;
-		}
-
-		return null;
+		});
 	}
 
 	/**
-	 * Find country, city, address given the coordinates
+	 * Removes the vote of the authenticated user from an event
 	 * 
-	 * @param latitude
-	 * @param longitude
-	 * @return [country, city, address] if applicable
+	 * @param eventId
+	 *            of the event
+	 * @return NO_CONTENT if the vote does not exist after the call, NOT_FOUND
+	 *         if there is no event with that id, BAD_REQUEST if id is not
+	 *         valid
 	 */
-	private String[] getAddress(float latitude, float longitude) {
-		String union = String.valueOf(latitude) + "," + String.valueOf(longitude);
-		URL url;
-		try {
-			url = new URL("http://maps.googleapis.com/maps/api/geocode/json?address=" + URIUtil.encodeQuery(union)
-					+ "&sensor=true");
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-			conn.setRequestMethod("GET");
-			conn.setRequestProperty("Accept", "application/json");
-			if (conn.getResponseCode() != 200) {
-				return null;
-			}
-			BufferedReader br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
-			String output = "", json = "";
-			while ((output = br.readLine()) != null) {
-				json += output;
-			}
+	@DELETE
+	@Path("{id}/vote")
+	public void unvote(@Suspended AsyncResponse response, @PathParam("id") final String eventId) {
+		final UserPrincipal principal = UserPrincipal.of(securityContext);
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (!NumberUtils.isDigits(eventId)) {
+					return Response.status(Status.BAD_REQUEST)
+							.entity(new Message("EVENTS", "Id must be a valid positive integer!")).build();
+				}
 
-			JSONObject obj = new JSONObject(json);
-			String streetNumber = "";
-			String[] result = new String[3];
-
-			JSONArray addressComponents = obj.getJSONArray("results").getJSONObject(0)
-					.getJSONArray("address_components");
-			for (int i = 0; i < addressComponents.length(); i++) {
-				String types = (String) addressComponents.getJSONObject(i).getJSONArray("types").getString(0);
-
-				if (types.equals("street_number")) {
-					streetNumber = (String) addressComponents.getJSONObject(i).getString("long_name");
-				} else if (types.equals("route")) {
-					result[2] = (String) addressComponents.getJSONObject(i).getString("long_name");
-				} else if (types.equals("administrative_area_level_3")) {
-					result[1] = (String) addressComponents.getJSONObject(i).getString("long_name");
-				} else if (types.equals("country")) {
-					result[0] = (String) addressComponents.getJSONObject(i).getString("long_name");
+				// check if user is valid
+				if (principal == null) {
+					return Response.status(Status.UNAUTHORIZED)
+							.entity(new Message("AUTHORIZATION", "Your auth token is not valid!")).build();
 				}
-			}
+				int userId = principal.getUserId();
 
-			if (!streetNumber.equals("")) {
-				result[2] = result[2] + ", " + streetNumber;
+				// remove the vote
+				try {
+					switch (EventStorage.instance.unvote(userId, NumberUtils.toInt(eventId))) {
+					case NO_EVENT:
+						return Response.status(Status.NOT_FOUND)
+								.entity(new Message("EVENTS", "No event with id " + eventId + " has been found")).build();
+					case NOT_VOTED:
+						return Response.status(Status.NO_CONTENT)
+								.entity(new Message("EVENTS", "Vote already doesn't exist!")).build();
+					default:
+						return Response.status(Status.NO_CONTENT).entity(new Message("EVENTS", "Vote deleted")).build();
+					}
+				} catch (VotesDBException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("EVENTS", e.getMessage())).build();
+				}
 			}
-
-			return result;
-
-		} catch (IOException e) {
-			return null;
-		}
+		});
 	}
 }
@@ -0,0 +1,13 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+/**
+ * Result of {@link EventStorage#removeIfAuthorized(int, int)}
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public enum RemoveOutcome {
+	DELETED, // event removed
+	FORBIDDEN, // the user is neither the submitter nor a superuser
+	NOT_FOUND, // no event with the given id
+}
@@ -0,0 +1,89 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
+
+/**
+ * Recomputes the VOTES counter of the events that drifted from the votes
+ * table. Events are scanned in batches ordered by id with plain (non locking)
+ * reads; only the drifted rows are updated, one short autocommit statement
+ * each, so hot events are never locked for longer than a single update.
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class VoteCounterReconciler implements Runnable {
+
+	/**
+	 * number of events checked by each query
+	 */
+	private final int batchSize;
+	/**
+	 * pause between two batches, to spread the load on the database
+	 */
+	private final long pauseMillis;
+
+	public VoteCounterReconciler(int batchSize, long pauseMillis) {
+		this.batchSize = batchSize;
+		this.pauseMillis = pauseMillis;
+	}
+
+	@Override
+	public void run() {
+		System.out.println("[RECONCILE] Checking votes counters");
+		int lastId = 0;
+		int fixed = 0;
+		try {
+			while (true) {
+				List<int[]> drifted = new ArrayList<int[]>();
+				int scanned = 0;
+				try (Connection connection = Database.getConnection()) {
+					PreparedStatement getStmt = connection.prepareStatement(
+							"SELECT e.ID, e.VOTES, COUNT(v.EVENTID) FROM gsx95369n3oh2zo6.events e "
+									+ "LEFT JOIN gsx95369n3oh2zo6.votes v ON v.EVENTID = e.ID "
+									+ "WHERE e.ID > ? GROUP BY e.ID ORDER BY e.ID LIMIT ?");
+					getStmt.setInt(1, lastId);
+					getStmt.setInt(2, batchSize);
+					ResultSet result = getStmt.executeQuery();
+					while (result.next()) {
+						scanned++;
+						lastId = result.getInt(1);
+						if (result.getInt(2) != result.getInt(3)) {
+							drifted.add(new int[] { lastId, result.getInt(2) });
+						}
+					}
+
+					PreparedStatement updStmt = connection.prepareStatement(
+							"UPDATE gsx95369n3oh2zo6.events SET VOTES = (SELECT COUNT(*) FROM gsx95369n3oh2zo6.votes WHERE EVENTID = ?) "
+									+ "WHERE ID = ? AND VOTES = ?");
+					for (int[] event : drifted) {
+						updStmt.setInt(1, event[0]);
+						updStmt.setInt(2, event[0]);
+						// skip the event if a vote changed the counter meanwhile,
+						// it will be checked again in the next run
+						updStmt.setInt(3, event[1]);
+						fixed += updStmt.executeUpdate();
+					}
+				}
+				if (scanned < batchSize) {
+					break;
+				}
+				Thread.sleep(pauseMillis);
+			}
+			System.out.println("[RECONCILE] Done, fixed " + fixed + " counters");
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[RECONCILE] EXCEPTION in VoteCounterReconciler.run()");
+			System.out.println(e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,16 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+/**
+ * Result of {@link EventStorage#vote(int, int)} and
+ * {@link EventStorage#unvote(int, int)}
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public enum VoteOutcome {
+	CREATED, // vote added
+	ALREADY_VOTED, // the user had already voted the event
+	REMOVED, // vote removed
+	NOT_VOTED, // the user had not voted the event
+	NO_EVENT, // no event with the given id
+}
@@ -0,0 +1,105 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.GeoUtils;
+
+/**
+ * Geocoding answered from a list of known places, for tests and offline
+ * benchmarks. Each line of the file is
+ *
+ * <pre>
+ * latitude	longitude	country	city	street
+ * </pre>
+ *
+ * separated by tabs, lines starting with # are ignored. Addresses are matched
+ * as the {@link GeocodingCache} does, positions are answered with the nearest
+ * place within maxDistance meters. An optional latency simulates the remote
+ * service
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class FileGeocodingProvider implements GeocodingProvider {
+
+	private final Map<String, float[]> coordinates = new HashMap<String, float[]>();
+	private final List<float[]> positions = new ArrayList<float[]>();
+	private final List<String[]> addresses = new ArrayList<String[]>();
+	private final double maxDistance;
+	private final long latencyMillis;
+
+	/**
+	 * @param in
+	 *            places, read and closed
+	 * @param maxDistance
+	 *            meters beyond which a position is unknown
+	 * @param latencyMillis
+	 *            added to every lookup
+	 * @throws IOException
+	 */
+	public FileGeocodingProvider(InputStream in, double maxDistance, long latencyMillis) throws IOException {
+		this.maxDistance = maxDistance;
+		this.latencyMillis = latencyMillis;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\t", -1);
+				if (fields.length < 5) {
+					throw new IOException("Malformed place: " + line);
+				}
+				float[] position = { Float.parseFloat(fields[0]), Float.parseFloat(fields[1]) };
+				String[] address = { fields[2], fields[3], fields[4] };
+				coordinates.put(GeocodingCache.addressKey(address[0], address[1], address[2]), position);
+				positions.add(position);
+				addresses.add(address);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed coordinates", e);
+		}
+	}
+
+	@Override
+	public float[] getCoordinates(String country, String city, String street) throws IOException {
+		pause();
+		float[] position = coordinates.get(GeocodingCache.addressKey(country, city, street));
+		return position == null ? null : position.clone();
+	}
+
+	@Override
+	public String[] getAddress(float latitude, float longitude) throws IOException {
+		pause();
+		int nearest = -1;
+		double nearestDistance = maxDistance;
+		for (int i = 0; i < positions.size(); i++) {
+			double d = GeoUtils.distance(latitude, longitude, positions.get(i)[0], positions.get(i)[1]);
+			if (d <= nearestDistance) {
+				nearest = i;
+				nearestDistance = d;
+			}
+		}
+		return nearest < 0 ? null : addresses.get(nearest).clone();
+	}
+
+	private void pause() throws IOException {
+		if (latencyMillis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(latencyMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.GeoUtils;
+
+/**
+ * Local list of places, answering reverse geocoding without the network. The
+ * file is memory mapped, so that the places are paged in by the operating
+ * system and only a grid of place numbers is kept on the heap. Layout, big
+ * endian:
+ *
+ * <pre>
+ * int magic "NSGZ", int version, int places, int strings
+ * places x (float latitude, float longitude, int country, int city, int street)
+ * (strings + 1) x int offset of the string in the data
+ * UTF-8 data of the strings
+ * </pre>
+ *
+ * A string number of -1 stands for a missing value. The file is built from
+ * the same tab separated format of {@link FileGeocodingProvider}:
+ *
+ * <pre>
+ * java -cp target/classes:target/dependency/* \
+ *     it.polimi.moscowmule.neighborhoodsecurity.geocoding.Gazetteer places.tsv places.bin
+ * </pre>
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class Gazetteer {
+
+	private static final int MAGIC = 0x4E53475A;
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;
+	private static final int PLACE = 20;
+
+	private final ByteBuffer buffer;
+	private final int places;
+	private final int offsets;
+	private final int data;
+	/**
+	 * side of a cell of the grid, in degrees
+	 */
+	private final double cellSize;
+	/**
+	 * sorted keys of the cells holding at least a place
+	 */
+	private long[] cells;
+	/**
+	 * places of cells[c] are members[starts[c]] to members[starts[c + 1] - 1]
+	 */
+	private int[] starts;
+	private int[] members;
+
+	/**
+	 * Maps a gazetteer and indexes its places
+	 *
+	 * @param file
+	 *            built by {@link #write(BufferedReader, File)}
+	 * @param cellSize
+	 *            side of a cell of the grid, in degrees, close to the
+	 *            distance of the lookups
+	 * @throws IOException
+	 *             if the file cannot be read or is not a gazetteer
+	 */
+	public Gazetteer(File file, double cellSize) throws IOException {
+		this.cellSize = cellSize;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			// the mapping stays valid after the channel is closed
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a gazetteer: " + file);
+		}
+		this.places = buffer.getInt(8);
+		int strings = buffer.getInt(12);
+		this.offsets = HEADER + places * PLACE;
+		this.data = offsets + (strings + 1) * 4;
+		if (data > buffer.limit() || data + buffer.getInt(offsets + strings * 4) > buffer.limit()) {
+			throw new IOException("Truncated gazetteer: " + file);
+		}
+		index();
+	}
+
+	/**
+	 * Builds the grid as sorted arrays, no object per cell or per place
+	 */
+	private void index() {
+		long[] keys = new long[places];
+		for (int i = 0; i < places; i++) {
+			keys[i] = cell(buffer.getFloat(HEADER + i * PLACE), buffer.getFloat(HEADER + i * PLACE + 4));
+		}
+		long[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[count++] = sorted[i];
+			}
+		}
+		cells = Arrays.copyOf(sorted, count);
+		starts = new int[count + 1];
+		int[] cellOf = new int[places];
+		for (int i = 0; i < places; i++) {
+			cellOf[i] = Arrays.binarySearch(cells, keys[i]);
+			starts[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < count; c++) {
+			starts[c + 1] += starts[c];
+		}
+		int[] next = Arrays.copyOf(starts, count);
+		members = new int[places];
+		for (int i = 0; i < places; i++) {
+			members[next[cellOf[i]]++] = i;
+		}
+	}
+
+	/**
+	 * @return number of places
+	 */
+	public int size() {
+		return places;
+	}
+
+	/**
+	 * Finds the nearest place
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @param maxDistance
+	 *            in meters, farther places are ignored
+	 * @return [country, city, street] of the nearest place, or null if none is
+	 *         within maxDistance
+	 */
+	public String[] nearest(float latitude, float longitude, double maxDistance) {
+		float[] box = GeoUtils.boundingBox(latitude, longitude, maxDistance);
+		long rowMin = (long) Math.floor(box[0] / cellSize);
+		long rowMax = (long) Math.floor(box[1] / cellSize);
+		long colMin = (long) Math.floor(box[2] / cellSize);
+		long colMax = (long) Math.floor(box[3] / cellSize);
+		int nearest = -1;
+		double nearestDistance = maxDistance;
+		for (long row = rowMin; row <= rowMax; row++) {
+			for (long col = colMin; col <= colMax; col++) {
+				int c = Arrays.binarySearch(cells, key(row, col));
+				if (c < 0) {
+					continue;
+				}
+				for (int m = starts[c]; m < starts[c + 1]; m++) {
+					int i = members[m];
+					double d = GeoUtils.distance(latitude, longitude, buffer.getFloat(HEADER + i * PLACE),
+							buffer.getFloat(HEADER + i * PLACE + 4));
+					if (d <= nearestDistance) {
+						nearest = i;
+						nearestDistance = d;
+					}
+				}
+			}
+		}
+		if (nearest < 0) {
+			return null;
+		}
+		int at = HEADER + nearest * PLACE + 8;
+		return new String[] { string(buffer.getInt(at)), string(buffer.getInt(at + 4)),
+				string(buffer.getInt(at + 8)) };
+	}
+
+	private String string(int n) {
+		if (n < 0) {
+			return null;
+		}
+		int start = buffer.getInt(offsets + n * 4);
+		byte[] bytes = new byte[buffer.getInt(offsets + n * 4 + 4) - start];
+		// absolute reads only, the buffer is shared by all the threads
+		ByteBuffer view = buffer.duplicate();
+		view.position(data + start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private long cell(float latitude, float longitude) {
+		return key((long) Math.floor(latitude / cellSize), (long) Math.floor(longitude / cellSize));
+	}
+
+	private static long key(long row, long col) {
+		return (row << 32) | (col & 0xffffffffL);
+	}
+
+	/**
+	 * Builds a gazetteer from tab separated places: latitude, longitude,
+	 * country, city, street. Empty values are stored as missing
+	 *
+	 * @param in
+	 *            places
+	 * @param out
+	 *            gazetteer to write
+	 * @throws IOException
+	 */
+	public static void write(BufferedReader in, File out) throws IOException {
+		List<float[]> positions = new ArrayList<float[]>();
+		List<int[]> names = new ArrayList<int[]>();
+		Map<String, Integer> numbers = new HashMap<String, Integer>();
+		List<byte[]> strings = new ArrayList<byte[]>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.trim().isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\t", -1);
+			if (fields.length < 5) {
+				throw new IOException("Malformed place: " + line);
+			}
+			try {
+				positions.add(new float[] { Float.parseFloat(fields[0]), Float.parseFloat(fields[1]) });
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed coordinates: " + line, e);
+			}
+			int[] place = new int[3];
+			for (int f = 0; f < 3; f++) {
+				String value = fields[f + 2].trim();
+				if (value.isEmpty()) {
+					place[f] = -1;
+					continue;
+				}
+				Integer n = numbers.get(value);
+				if (n == null) {
+					n = strings.size();
+					numbers.put(value, n);
+					strings.add(value.getBytes(StandardCharsets.UTF_8));
+				}
+				place[f] = n;
+			}
+			names.add(place);
+		}
+
+		try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)))) {
+			o.writeInt(MAGIC);
+			o.writeInt(VERSION);
+			o.writeInt(positions.size());
+			o.writeInt(strings.size());
+			for (int i = 0; i < positions.size(); i++) {
+				o.writeFloat(positions.get(i)[0]);
+				o.writeFloat(positions.get(i)[1]);
+				o.writeInt(names.get(i)[0]);
+				o.writeInt(names.get(i)[1]);
+				o.writeInt(names.get(i)[2]);
+			}
+			int offset = 0;
+			for (byte[] s : strings) {
+				o.writeInt(offset);
+				offset += s.length;
+			}
+			o.writeInt(offset);
+			for (byte[] s : strings) {
+				o.write(s);
+			}
+		}
+	}
+
+	/**
+	 * Converts a tab separated list of places to a gazetteer
+	 *
+	 * @param args
+	 *            places.tsv gazetteer.bin
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: Gazetteer places.tsv gazetteer.bin");
+			return;
+		}
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+			write(in, new File(args[1]));
+		}
+		System.out.println("Gazetteer of " + new Gazetteer(new File(args[1]), 0.01).size() + " places written");
+	}
+}
@@ -0,0 +1,221 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+
+/**
+ * Converts addresses to coordinates and back, looking into the
+ * {@link GeocodingCache} before calling the {@link GeocodingProvider}. If a
+ * {@link Gazetteer} is configured, positions are first looked up there and
+ * only the ones without a place nearby go to the cache and the provider.
+ * Concurrent misses of the same cache key are coalesced by a
+ * {@link LookupCoalescer}, so that a burst of reports from the same spot calls
+ * the provider once.
+ *
+ * A lookup the provider finds nothing for returns null and is remembered by
+ * the cache for a while, a failed one throws and is not remembered, so that
+ * the caller can try again.
+ * <ul>
+ * <li>GEOCODING_PROVIDER: "google" (default) or "file", see
+ * {@link FileGeocodingProvider}</li>
+ * <li>GEOCODING_URL: endpoint of the Google Geocoding API</li>
+ * <li>GEOCODING_API_KEY: key of the Google Geocoding API, if any</li>
+ * <li>GEOCODING_CONNECT_TIMEOUT_MS: to connect or to get a pooled connection
+ * (default 2000)</li>
+ * <li>GEOCODING_READ_TIMEOUT_MS: to wait for the answer (default 3000)</li>
+ * <li>GEOCODING_MAX_CONNECTIONS: pooled connections (default 20)</li>
+ * <li>GEOCODING_FILE: places of the file provider (default places.tsv)</li>
+ * <li>GEOCODING_FILE_MAX_METERS: farthest place answered by the file provider
+ * (default 200)</li>
+ * <li>GEOCODING_FILE_LATENCY_MS: delay added by the file provider (default
+ * 0)</li>
+ * <li>GEOCODING_GAZETTEER: gazetteer file, unset to disable the local
+ * lookups</li>
+ * <li>GEOCODING_GAZETTEER_MAX_METERS: farthest place answered by the
+ * gazetteer (default 100)</li>
+ * <li>GEOCODING_GAZETTEER_CELL_MICRODEG: side of a cell of the gazetteer grid,
+ * in millionths of degree (default 2000)</li>
+ * <li>GEOCODING_COALESCE_WAIT_MS: longest wait for the same lookup started by
+ * another request, then the lookup is run again (default 5000)</li>
+ * </ul>
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public enum Geocoder {
+	instance;
+
+	private final GeocodingProvider provider = createProvider();
+	private final Gazetteer gazetteer = openGazetteer();
+	private final double gazetteerDistance = Configuration.getLong("GEOCODING_GAZETTEER_MAX_METERS", 100);
+
+	/**
+	 * concurrent lookups of the same cache key share one call to the provider
+	 */
+	private final LookupCoalescer<float[]> coordinatesLookups = new LookupCoalescer<float[]>(
+			Configuration.getLong("GEOCODING_COALESCE_WAIT_MS", 5000));
+	private final LookupCoalescer<String[]> addressLookups = new LookupCoalescer<String[]>(
+			Configuration.getLong("GEOCODING_COALESCE_WAIT_MS", 5000));
+
+	private final AtomicLong gazetteerHits = new AtomicLong();
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Find coordinates given country, city and street
+	 * 
+	 * @param country
+	 * @param city
+	 * @param street
+	 * @return [latitude, longitude] if found, otherwise null
+	 * @throws IOException
+	 *             if the provider cannot be reached or answers with an error
+	 */
+	public float[] getCoordinates(final String country, final String city, final String street)
+			throws IOException {
+		if (GeocodingCache.instance.isCoordinatesNotFound(country, city, street)) {
+			return null;
+		}
+		float[] result = GeocodingCache.instance.getCoordinates(country, city, street);
+		if (result != null) {
+			return result;
+		}
+		return coordinatesLookups.get(GeocodingCache.addressKey(country, city, street),
+				new LookupCoalescer.Lookup<float[]>() {
+					@Override
+					public float[] call() throws IOException {
+						long start = System.nanoTime();
+						float[] found;
+						try {
+							found = provider.getCoordinates(country, city, street);
+						} catch (IOException e) {
+							errors.incrementAndGet();
+							throw e;
+						} finally {
+							record(start);
+						}
+						if (found != null) {
+							GeocodingCache.instance.putCoordinates(country, city, street, found);
+						} else {
+							GeocodingCache.instance.putCoordinatesNotFound(country, city, street);
+						}
+						return found;
+					}
+				});
+	}
+
+	/**
+	 * Find country, city, address given the coordinates
+	 * 
+	 * @param latitude
+	 * @param longitude
+	 * @return [country, city, address] if found, otherwise null
+	 * @throws IOException
+	 *             if the provider cannot be reached or answers with an error
+	 */
+	public String[] getAddress(final float latitude, final float longitude) throws IOException {
+		if (gazetteer != null) {
+			String[] place = gazetteer.nearest(latitude, longitude, gazetteerDistance);
+			if (place != null) {
+				gazetteerHits.incrementAndGet();
+				return place;
+			}
+		}
+		if (GeocodingCache.instance.isAddressNotFound(latitude, longitude)) {
+			return null;
+		}
+		String[] result = GeocodingCache.instance.getAddress(latitude, longitude);
+		if (result != null) {
+			return result;
+		}
+		return addressLookups.get(GeocodingCache.instance.positionKey(latitude, longitude),
+				new LookupCoalescer.Lookup<String[]>() {
+					@Override
+					public String[] call() throws IOException {
+						long start = System.nanoTime();
+						String[] found;
+						try {
+							found = provider.getAddress(latitude, longitude);
+						} catch (IOException e) {
+							errors.incrementAndGet();
+							throw e;
+						} finally {
+							record(start);
+						}
+						if (found != null) {
+							GeocodingCache.instance.putAddress(latitude, longitude, found);
+						} else {
+							GeocodingCache.instance.putAddressNotFound(latitude, longitude);
+						}
+						return found;
+					}
+				});
+	}
+
+	/**
+	 * @return the counters of the cache and of the calls to the provider
+	 */
+	public GeocodingStats getStats() {
+		GeocodingStats stats = GeocodingCache.instance.getStats();
+		stats.setGazetteerHits(gazetteerHits.get());
+		long count = calls.get();
+		stats.setProviderCalls(count);
+		stats.setProviderErrors(errors.get());
+		stats.setProviderAvgMillis(count == 0 ? 0 : totalNanos.get() / 1e6 / count);
+		stats.setProviderMaxMillis(maxNanos.get() / 1e6);
+		stats.setCoalesced(coordinatesLookups.getShared() + addressLookups.getShared());
+		stats.setCoalesceFallbacks(coordinatesLookups.getFallbacks() + addressLookups.getFallbacks());
+		return stats;
+	}
+
+	private void record(long start) {
+		long elapsed = System.nanoTime() - start;
+		calls.incrementAndGet();
+		totalNanos.addAndGet(elapsed);
+		long max = maxNanos.get();
+		while (elapsed > max && !maxNanos.compareAndSet(max, elapsed)) {
+			max = maxNanos.get();
+		}
+	}
+
+	private static Gazetteer openGazetteer() {
+		String file = Configuration.getString("GEOCODING_GAZETTEER", null);
+		if (file == null) {
+			return null;
+		}
+		try {
+			Gazetteer gazetteer = new Gazetteer(new File(file),
+					Configuration.getInt("GEOCODING_GAZETTEER_CELL_MICRODEG", 2000) / 1e6);
+			System.out.println("[GEOCODING] Gazetteer of " + gazetteer.size() + " places loaded");
+			return gazetteer;
+		} catch (IOException e) {
+			System.out.println("[GEOCODING] Cannot read gazetteer " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static GeocodingProvider createProvider() {
+		if (Configuration.getString("GEOCODING_PROVIDER", "google").equals("file")) {
+			String file = Configuration.getString("GEOCODING_FILE", "places.tsv");
+			try {
+				return new FileGeocodingProvider(new FileInputStream(file),
+						Configuration.getLong("GEOCODING_FILE_MAX_METERS", 200),
+						Configuration.getLong("GEOCODING_FILE_LATENCY_MS", 0));
+			} catch (IOException e) {
+				System.out.println("[GEOCODING] Cannot read places from " + file + ", using Google");
+			}
+		}
+		return new GoogleGeocodingProvider(
+				Configuration.getString("GEOCODING_URL", "https://maps.googleapis.com/maps/api/geocode/json"),
+				Configuration.getString("GEOCODING_API_KEY", null),
+				Configuration.getInt("GEOCODING_CONNECT_TIMEOUT_MS", 2000),
+				Configuration.getInt("GEOCODING_READ_TIMEOUT_MS", 3000),
+				Configuration.getInt("GEOCODING_MAX_CONNECTIONS", 20));
+	}
+}
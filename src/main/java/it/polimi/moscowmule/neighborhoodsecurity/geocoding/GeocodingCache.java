@@ -0,0 +1,280 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.cache.LruCache;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
+
+/**
+ * Cache of the geocoding results, so that repeated lookups of the same street
+ * do not call the external API. Addresses are keyed by their normalized text,
+ * coordinates are rounded to GEOCODING_CACHE_PRECISION decimals (4 is about
+ * 11 meters). Results are kept in memory and, if GEOCODING_CACHE_TABLE is set
+ * (see sql/geocoding_cache.sql), in a table that survives restarts and is
+ * shared by all the instances. Errors of the table are logged and ignored,
+ * the caller then asks the external API.
+ *
+ * Lookups the service found nothing for are remembered in memory for
+ * GEOCODING_NOT_FOUND_TTL_MIN minutes (default 60), so that a position
+ * without address is not asked again at every report
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public enum GeocodingCache {
+	instance;
+
+	private final int precision = Configuration.getInt("GEOCODING_CACHE_PRECISION", 4);
+	private final boolean table = Configuration.getBoolean("GEOCODING_CACHE_TABLE", false);
+
+	/**
+	 * [latitude, longitude] by normalized address
+	 */
+	private final LruCache<String, float[]> coordinates = new LruCache<String, float[]>("geocoding-coordinates",
+			Configuration.getInt("GEOCODING_CACHE_SIZE", 10000),
+			Configuration.getLong("GEOCODING_CACHE_TTL_MIN", 7 * 24 * 60) * 60 * 1000);
+	/**
+	 * [country, city, street] by rounded coordinates
+	 */
+	private final LruCache<String, String[]> addresses = new LruCache<String, String[]>("geocoding-addresses",
+			Configuration.getInt("GEOCODING_CACHE_SIZE", 10000),
+			Configuration.getLong("GEOCODING_CACHE_TTL_MIN", 7 * 24 * 60) * 60 * 1000);
+
+	/**
+	 * keys of both kinds the service found nothing for
+	 */
+	private final LruCache<String, Boolean> notFound = new LruCache<String, Boolean>("geocoding-not-found",
+			Configuration.getInt("GEOCODING_CACHE_SIZE", 10000),
+			Configuration.getLong("GEOCODING_NOT_FOUND_TTL_MIN", 60) * 60 * 1000);
+
+	private final AtomicLong notFoundHits = new AtomicLong();
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong tableHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Cached coordinates of an address
+	 *
+	 * @param country
+	 * @param city
+	 * @param street
+	 * @return [latitude, longitude], or null if not cached
+	 */
+	public float[] getCoordinates(String country, String city, String street) {
+		String key = addressKey(country, city, street);
+		float[] cached = coordinates.get(key);
+		if (cached != null) {
+			memoryHits.incrementAndGet();
+			return cached;
+		}
+		String[] row = load(key);
+		if (row != null && row[0] != null) {
+			tableHits.incrementAndGet();
+			cached = new float[] { Float.parseFloat(row[0]), Float.parseFloat(row[1]) };
+			coordinates.put(key, cached);
+			return cached;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Caches the coordinates of an address
+	 *
+	 * @param country
+	 * @param city
+	 * @param street
+	 * @param result
+	 *            [latitude, longitude]
+	 */
+	public void putCoordinates(String country, String city, String street, float[] result) {
+		String key = addressKey(country, city, street);
+		coordinates.put(key, result);
+		store(key, result[0], result[1], null);
+	}
+
+	/**
+	 * Cached address of a position
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @return [country, city, street], or null if not cached
+	 */
+	public String[] getAddress(float latitude, float longitude) {
+		String key = positionKey(latitude, longitude);
+		String[] cached = addresses.get(key);
+		if (cached != null) {
+			memoryHits.incrementAndGet();
+			return cached;
+		}
+		String[] row = load(key);
+		if (row != null) {
+			tableHits.incrementAndGet();
+			cached = new String[] { row[2], row[3], row[4] };
+			addresses.put(key, cached);
+			return cached;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Caches the address of a position
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @param result
+	 *            [country, city, street]
+	 */
+	public void putAddress(float latitude, float longitude, String[] result) {
+		String key = positionKey(latitude, longitude);
+		addresses.put(key, result);
+		store(key, null, null, result);
+	}
+
+	/**
+	 * @param country
+	 * @param city
+	 * @param street
+	 * @return true if the service recently found no coordinates for the
+	 *         address
+	 */
+	public boolean isCoordinatesNotFound(String country, String city, String street) {
+		return isNotFound(addressKey(country, city, street));
+	}
+
+	/**
+	 * Remembers that the service found no coordinates for the address
+	 *
+	 * @param country
+	 * @param city
+	 * @param street
+	 */
+	public void putCoordinatesNotFound(String country, String city, String street) {
+		notFound.put(addressKey(country, city, street), Boolean.TRUE);
+	}
+
+	/**
+	 * @param latitude
+	 * @param longitude
+	 * @return true if the service recently found no address for the position
+	 */
+	public boolean isAddressNotFound(float latitude, float longitude) {
+		return isNotFound(positionKey(latitude, longitude));
+	}
+
+	/**
+	 * Remembers that the service found no address for the position
+	 *
+	 * @param latitude
+	 * @param longitude
+	 */
+	public void putAddressNotFound(float latitude, float longitude) {
+		notFound.put(positionKey(latitude, longitude), Boolean.TRUE);
+	}
+
+	private boolean isNotFound(String key) {
+		if (notFound.get(key) == null) {
+			return false;
+		}
+		notFoundHits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return a snapshot of the counters
+	 */
+	public GeocodingStats getStats() {
+		GeocodingStats stats = new GeocodingStats();
+		stats.setMemoryHits(memoryHits.get());
+		stats.setTableHits(tableHits.get());
+		stats.setMisses(misses.get());
+		stats.setNotFoundHits(notFoundHits.get());
+		long lookups = memoryHits.get() + tableHits.get() + misses.get();
+		stats.setHitRate(lookups == 0 ? 0 : (double) (lookups - misses.get()) / lookups);
+		return stats;
+	}
+
+	/**
+	 * Key of an address: lower case, without accents and with single spaces,
+	 * so that "Via  Golgi" and "via golgi" share the entry
+	 */
+	static String addressKey(String country, String city, String street) {
+		String joined = country + "," + city + "," + street;
+		String plain = Normalizer.normalize(joined, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+		return "a:" + plain.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ").replaceAll(" ?, ?", ",").trim();
+	}
+
+	/**
+	 * Key of a position, rounded to the configured precision
+	 */
+	String positionKey(float latitude, float longitude) {
+		double scale = Math.pow(10, precision);
+		return "r:" + Math.round(latitude * scale) + "," + Math.round(longitude * scale);
+	}
+
+	/**
+	 * @return the key as stored in the LOOKUP_KEY column
+	 */
+	private static String column(String key) {
+		return key.length() > 255 ? key.substring(0, 255) : key;
+	}
+
+	/**
+	 * @return [latitude, longitude, country, city, street] as strings, or null
+	 */
+	private String[] load(String key) {
+		if (!table) {
+			return null;
+		}
+		try (Connection connection = Database.getConnection()) {
+			PreparedStatement getStmt = connection.prepareStatement(
+					"SELECT LATITUDE, LONGITUDE, COUNTRY, CITY, STREET FROM gsx95369n3oh2zo6.geocoding_cache WHERE LOOKUP_KEY = ?");
+			getStmt.setString(1, column(key));
+			ResultSet result = getStmt.executeQuery();
+			if (result.next()) {
+				return new String[] { result.getString(1), result.getString(2), result.getString(3),
+						result.getString(4), result.getString(5) };
+			}
+			return null;
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in GeocodingCache.load()");
+			System.out.println(e.getMessage());
+			return null;
+		}
+	}
+
+	private void store(String key, Float latitude, Float longitude, String[] address) {
+		if (!table) {
+			return;
+		}
+		try (Connection connection = Database.getConnection()) {
+			PreparedStatement putStmt = connection.prepareStatement(
+					"REPLACE INTO gsx95369n3oh2zo6.geocoding_cache (LOOKUP_KEY, LATITUDE, LONGITUDE, COUNTRY, CITY, STREET) VALUES (?,?,?,?,?,?)");
+			putStmt.setString(1, column(key));
+			if (latitude != null) {
+				putStmt.setFloat(2, latitude);
+				putStmt.setFloat(3, longitude);
+			} else {
+				putStmt.setNull(2, Types.FLOAT);
+				putStmt.setNull(3, Types.FLOAT);
+			}
+			putStmt.setString(4, address == null ? null : address[0]);
+			putStmt.setString(5, address == null ? null : address[1]);
+			putStmt.setString(6, address == null ? null : address[2]);
+			putStmt.executeUpdate();
+		} catch (URISyntaxException | SQLException | ClassNotFoundException e) {
+			System.out.println("[DB] EXCEPTION in GeocodingCache.store()");
+			System.out.println(e.getMessage());
+		}
+	}
+}
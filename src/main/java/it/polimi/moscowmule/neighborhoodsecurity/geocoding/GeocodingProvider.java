@@ -0,0 +1,36 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import java.io.IOException;
+
+/**
+ * Service converting addresses to coordinates and back. Implementations must
+ * be thread safe
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public interface GeocodingProvider {
+
+	/**
+	 * Find coordinates given country, city and street
+	 *
+	 * @param country
+	 * @param city
+	 * @param street
+	 * @return [latitude, longitude], or null if the address is unknown
+	 * @throws IOException
+	 *             if the service cannot be reached or does not answer in time
+	 */
+	float[] getCoordinates(String country, String city, String street) throws IOException;
+
+	/**
+	 * Find country, city, street given the coordinates
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @return [country, city, street], or null if nothing is found there
+	 * @throws IOException
+	 *             if the service cannot be reached or does not answer in time
+	 */
+	String[] getAddress(float latitude, float longitude) throws IOException;
+}
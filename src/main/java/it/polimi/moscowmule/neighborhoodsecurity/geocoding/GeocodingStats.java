@@ -0,0 +1,163 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Snapshot of the usage of the geocoding cache and of the calls to the
+ * geocoding service
+ *
+ * @author Simone Ripamonti
+ *
+ */
+@XmlRootElement
+public class GeocodingStats {
+	/**
+	 * lookups answered from memory
+	 */
+	private long memoryHits;
+	/**
+	 * lookups answered from the geocoding_cache table
+	 */
+	private long tableHits;
+	/**
+	 * lookups left to the geocoding service
+	 */
+	private long misses;
+	/**
+	 * hits / lookups
+	 */
+	private double hitRate;
+	/**
+	 * lookups the service recently found nothing for, not counted as lookups
+	 */
+	private long notFoundHits;
+	/**
+	 * positions answered by the local gazetteer, not counted as lookups
+	 */
+	private long gazetteerHits;
+	/**
+	 * calls to the geocoding service, failed ones included
+	 */
+	private long providerCalls;
+	/**
+	 * calls failed because of timeouts, connection or service errors
+	 */
+	private long providerErrors;
+	/**
+	 * average duration of a call
+	 */
+	private double providerAvgMillis;
+	/**
+	 * longest call
+	 */
+	private double providerMaxMillis;
+	/**
+	 * lookups answered by the call of a concurrent request
+	 */
+	private long coalesced;
+	/**
+	 * lookups called again after a failed or slow shared call
+	 */
+	private long coalesceFallbacks;
+
+	public GeocodingStats() {
+
+	}
+
+	public long getMemoryHits() {
+		return memoryHits;
+	}
+
+	public void setMemoryHits(long memoryHits) {
+		this.memoryHits = memoryHits;
+	}
+
+	public long getTableHits() {
+		return tableHits;
+	}
+
+	public void setTableHits(long tableHits) {
+		this.tableHits = tableHits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	public double getHitRate() {
+		return hitRate;
+	}
+
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+
+	public long getNotFoundHits() {
+		return notFoundHits;
+	}
+
+	public void setNotFoundHits(long notFoundHits) {
+		this.notFoundHits = notFoundHits;
+	}
+
+	public long getGazetteerHits() {
+		return gazetteerHits;
+	}
+
+	public void setGazetteerHits(long gazetteerHits) {
+		this.gazetteerHits = gazetteerHits;
+	}
+
+	public long getProviderCalls() {
+		return providerCalls;
+	}
+
+	public void setProviderCalls(long providerCalls) {
+		this.providerCalls = providerCalls;
+	}
+
+	public long getProviderErrors() {
+		return providerErrors;
+	}
+
+	public void setProviderErrors(long providerErrors) {
+		this.providerErrors = providerErrors;
+	}
+
+	public double getProviderAvgMillis() {
+		return providerAvgMillis;
+	}
+
+	public void setProviderAvgMillis(double providerAvgMillis) {
+		this.providerAvgMillis = providerAvgMillis;
+	}
+
+	public double getProviderMaxMillis() {
+		return providerMaxMillis;
+	}
+
+	public void setProviderMaxMillis(double providerMaxMillis) {
+		this.providerMaxMillis = providerMaxMillis;
+	}
+
+	public long getCoalesced() {
+		return coalesced;
+	}
+
+	public void setCoalesced(long coalesced) {
+		this.coalesced = coalesced;
+	}
+
+	public long getCoalesceFallbacks() {
+		return coalesceFallbacks;
+	}
+
+	public void setCoalesceFallbacks(long coalesceFallbacks) {
+		this.coalesceFallbacks = coalesceFallbacks;
+	}
+
+}
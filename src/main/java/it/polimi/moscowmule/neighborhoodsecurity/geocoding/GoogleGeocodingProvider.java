@@ -0,0 +1,268 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Google Geocoding API. Connections are kept alive in a pool shared by all the
+ * requests, every call is bounded by the connect and read timeouts, and the
+ * answer is parsed while it is read
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class GoogleGeocodingProvider implements GeocodingProvider {
+
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	private final String url;
+	private final String apiKey;
+	private final HttpClient client;
+
+	/**
+	 * @param url
+	 *            of the geocoding API
+	 * @param apiKey
+	 *            may be null
+	 * @param connectTimeout
+	 *            milliseconds to open a connection, also the longest wait for
+	 *            a free connection of the pool
+	 * @param readTimeout
+	 *            milliseconds of silence after which a call fails
+	 * @param maxConnections
+	 *            size of the pool
+	 */
+	public GoogleGeocodingProvider(String url, String apiKey, int connectTimeout, int readTimeout,
+			int maxConnections) {
+		this.url = url;
+		this.apiKey = apiKey;
+		MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+		HttpConnectionManagerParams params = manager.getParams();
+		params.setConnectionTimeout(connectTimeout);
+		params.setSoTimeout(readTimeout);
+		params.setDefaultMaxConnectionsPerHost(maxConnections);
+		params.setMaxTotalConnections(maxConnections);
+		params.setStaleCheckingEnabled(true);
+		this.client = new HttpClient(manager);
+		client.getParams().setConnectionManagerTimeout(connectTimeout);
+		// retries are up to the caller, a retried call would double the timeout
+		client.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, new DefaultHttpMethodRetryHandler(0, false));
+	}
+
+	@Override
+	public float[] getCoordinates(String country, String city, String street) throws IOException {
+		return parseCoordinates(call("address", country + ", " + city + ", " + street));
+	}
+
+	@Override
+	public String[] getAddress(float latitude, float longitude) throws IOException {
+		return parseAddress(call("latlng", latitude + "," + longitude));
+	}
+
+	/**
+	 * Runs a query and parses the answer
+	 */
+	private Answer call(String parameter, String value) throws IOException {
+		GetMethod get = new GetMethod(url);
+		List<NameValuePair> query = new ArrayList<NameValuePair>();
+		query.add(new NameValuePair(parameter, value));
+		if (apiKey != null) {
+			query.add(new NameValuePair("key", apiKey));
+		}
+		get.setQueryString(query.toArray(new NameValuePair[query.size()]));
+		get.setRequestHeader("Accept", "application/json");
+		try {
+			int status = client.executeMethod(get);
+			if (status != HttpStatus.SC_OK) {
+				throw new IOException("Geocoding API answered " + status);
+			}
+			return parse(get.getResponseBodyAsStream());
+		} finally {
+			// gives the connection back to the pool
+			get.releaseConnection();
+		}
+	}
+
+	/**
+	 * @return [latitude, longitude] of the first result, or null
+	 * @throws IOException
+	 *             if the API refused the query
+	 */
+	static float[] parseCoordinates(Answer answer) throws IOException {
+		if (!answer.isFound() || answer.latitude == null || answer.longitude == null) {
+			return null;
+		}
+		return new float[] { answer.latitude.floatValue(), answer.longitude.floatValue() };
+	}
+
+	/**
+	 * @return [country, city, street] of the first result, or null
+	 * @throws IOException
+	 *             if the API refused the query
+	 */
+	static String[] parseAddress(Answer answer) throws IOException {
+		if (!answer.isFound()) {
+			return null;
+		}
+		String street = answer.route;
+		if (street != null && answer.streetNumber != null) {
+			street = street + ", " + answer.streetNumber;
+		}
+		return new String[] { answer.country, answer.city, street };
+	}
+
+	/**
+	 * Reads the status and the first result of an answer, skipping everything
+	 * else
+	 */
+	static Answer parse(InputStream in) throws IOException {
+		Answer answer = new Answer();
+		JsonParser p = FACTORY.createParser(in);
+		try {
+			if (p.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Unexpected answer of the geocoding API");
+			}
+			while (p.nextToken() == JsonToken.FIELD_NAME) {
+				String field = p.getCurrentName();
+				JsonToken value = p.nextToken();
+				if (field.equals("status")) {
+					answer.status = p.getText();
+				} else if (field.equals("results") && value == JsonToken.START_ARRAY) {
+					JsonToken result = p.nextToken();
+					if (result == JsonToken.START_OBJECT) {
+						readResult(p, answer);
+						result = p.nextToken();
+					}
+					while (result != JsonToken.END_ARRAY) {
+						p.skipChildren();
+						result = p.nextToken();
+					}
+				} else {
+					p.skipChildren();
+				}
+			}
+		} finally {
+			p.close();
+		}
+		return answer;
+	}
+
+	private static void readResult(JsonParser p, Answer answer) throws IOException {
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String field = p.getCurrentName();
+			JsonToken value = p.nextToken();
+			if (field.equals("address_components") && value == JsonToken.START_ARRAY) {
+				while (p.nextToken() == JsonToken.START_OBJECT) {
+					readComponent(p, answer);
+				}
+			} else if (field.equals("geometry") && value == JsonToken.START_OBJECT) {
+				while (p.nextToken() == JsonToken.FIELD_NAME) {
+					String name = p.getCurrentName();
+					if (p.nextToken() == JsonToken.START_OBJECT && name.equals("location")) {
+						readLocation(p, answer);
+					} else {
+						p.skipChildren();
+					}
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+	}
+
+	private static void readLocation(JsonParser p, Answer answer) throws IOException {
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.getCurrentName();
+			JsonToken value = p.nextToken();
+			if (value.isNumeric() && name.equals("lat")) {
+				answer.latitude = p.getDoubleValue();
+			} else if (value.isNumeric() && name.equals("lng")) {
+				answer.longitude = p.getDoubleValue();
+			} else {
+				p.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Reads a component, only its long name and its first type are used
+	 */
+	private static void readComponent(JsonParser p, Answer answer) throws IOException {
+		String longName = null;
+		String type = null;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			String name = p.getCurrentName();
+			JsonToken value = p.nextToken();
+			if (name.equals("long_name")) {
+				longName = p.getText();
+			} else if (name.equals("types") && value == JsonToken.START_ARRAY) {
+				JsonToken t = p.nextToken();
+				if (t == JsonToken.VALUE_STRING) {
+					type = p.getText();
+				}
+				while (t != JsonToken.END_ARRAY) {
+					p.skipChildren();
+					t = p.nextToken();
+				}
+			} else {
+				p.skipChildren();
+			}
+		}
+		if (type == null) {
+			return;
+		}
+		if (type.equals("street_number")) {
+			answer.streetNumber = longName;
+		} else if (type.equals("route")) {
+			answer.route = longName;
+		} else if (type.equals("administrative_area_level_3")) {
+			answer.city = longName;
+		} else if (type.equals("country")) {
+			answer.country = longName;
+		}
+	}
+
+	/**
+	 * The interesting parts of an answer
+	 */
+	static class Answer {
+		String status;
+		Double latitude;
+		Double longitude;
+		String country;
+		String city;
+		String route;
+		String streetNumber;
+
+		/**
+		 * @return true if there is a result, false if nothing has been found
+		 * @throws IOException
+		 *             if the API refused the query (quota, key, malformed
+		 *             query or internal error)
+		 */
+		boolean isFound() throws IOException {
+			if ("OK".equals(status)) {
+				return true;
+			}
+			if ("ZERO_RESULTS".equals(status)) {
+				return false;
+			}
+			throw new IOException("Geocoding API status " + status);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent lookups of the same key share a single call. The first
+ * caller runs the lookup in its own thread, the others wait for its result
+ * up to a bounded time. If the shared call fails or is too slow, a waiting
+ * caller runs the lookup by itself
+ *
+ * @author Simone Ripamonti
+ *
+ * @param <V>
+ *            result of a lookup
+ */
+public class LookupCoalescer<V> {
+
+	/**
+	 * A lookup that may fail
+	 */
+	public interface Lookup<V> {
+		V call() throws IOException;
+	}
+
+	private final ConcurrentMap<String, FutureTask<V>> inflight = new ConcurrentHashMap<String, FutureTask<V>>();
+	private final long waitMillis;
+
+	private final AtomicLong shared = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	/**
+	 * @param waitMillis
+	 *            longest wait for a call started by another thread
+	 */
+	public LookupCoalescer(long waitMillis) {
+		this.waitMillis = waitMillis;
+	}
+
+	/**
+	 * Runs a lookup, or waits for the one already running with the same key
+	 *
+	 * @param key
+	 *            identifies the lookup
+	 * @param lookup
+	 * @return the result of the lookup
+	 * @throws IOException
+	 *             if the lookup fails
+	 */
+	public V get(String key, final Lookup<V> lookup) throws IOException {
+		FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+			@Override
+			public V call() throws IOException {
+				return lookup.call();
+			}
+		});
+		FutureTask<V> running = inflight.putIfAbsent(key, task);
+		if (running == null) {
+			try {
+				task.run();
+			} finally {
+				inflight.remove(key, task);
+			}
+			try {
+				return task.get();
+			} catch (InterruptedException e) {
+				// the task has already run
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw unwrap(e);
+			}
+		}
+
+		shared.incrementAndGet();
+		try {
+			return running.get(waitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException | TimeoutException e) {
+			fallbacks.incrementAndGet();
+			return lookup.call();
+		}
+	}
+
+	/**
+	 * @return lookups answered by a call of another thread
+	 */
+	public long getShared() {
+		return shared.get();
+	}
+
+	/**
+	 * @return lookups run again after a failed or slow shared call
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	private static IOException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IOException(cause);
+	}
+}
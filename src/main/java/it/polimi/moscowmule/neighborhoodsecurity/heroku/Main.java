@@ -1,11 +1,29 @@
 package it.polimi.moscowmule.neighborhoodsecurity.heroku;
 
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlets.gzip.GzipHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.async.BoundedExecutor;
+
 /**
  * This class launches the web application in an embedded Jetty container. This is the entry point to your application. The Java
  * command that is used for launching should fire this main method.
+ *
+ * The engine is tuned through environment variables, so that it can follow the size of the dyno:
+ * <ul>
+ * <li>JETTY_MIN_THREADS (default 8), JETTY_MAX_THREADS (default 200) and JETTY_THREAD_IDLE_MS (default 60000): request
+ * threads, ignored with JETTY_VIRTUAL_THREADS</li>
+ * <li>JETTY_ACCEPTORS and JETTY_SELECTORS (default 0, chosen by Jetty from the processors)</li>
+ * <li>JETTY_ACCEPT_QUEUE (default 0, the one of the operating system): connections waiting to be accepted</li>
+ * <li>JETTY_IDLE_TIMEOUT_MS (default 30000): idle time before a connection is closed</li>
+ * <li>GZIP_ENABLED (default false), GZIP_MIN_BYTES (default 1024) and GZIP_MIME_TYPES: compression of the responses</li>
+ * </ul>
  */
 public class Main {
 
@@ -17,7 +35,13 @@ public class Main {
             webPort = "8080";
         }
 
-        final Server server = new Server(Integer.valueOf(webPort));
+        final Server server = new Server(createThreadPool());
+        final ServerConnector connector = new ServerConnector(server,
+                Configuration.getInt("JETTY_ACCEPTORS", 0), Configuration.getInt("JETTY_SELECTORS", 0));
+        connector.setPort(Integer.valueOf(webPort));
+        connector.setAcceptQueueSize(Configuration.getInt("JETTY_ACCEPT_QUEUE", 0));
+        connector.setIdleTimeout(Configuration.getLong("JETTY_IDLE_TIMEOUT_MS", 30000));
+        server.addConnector(connector);
         final WebAppContext root = new WebAppContext();
 
         root.setContextPath("/");
@@ -32,9 +56,57 @@ public class Main {
         root.setDescriptor(webappDirLocation + "/WEB-INF/web.xml");
         root.setResourceBase(webappDirLocation);
 
-        server.setHandler(root);
+        server.setHandler(compress(root));
 
         server.start();
         server.join();
     }
+
+    /**
+     * With JETTY_VIRTUAL_THREADS=true (Java 21 or later: the runtime set in
+     * system.properties, where the java21 profile is active) every request
+     * runs on its own virtual thread, and the resources do their
+     * blocking work inline instead of on the bounded executors: the database
+     * connection pool becomes the limit of the concurrency.
+     *
+     * @return the pool of the threads handling the requests
+     */
+    private static ThreadPool createThreadPool() {
+        if (Configuration.getBoolean("JETTY_VIRTUAL_THREADS", false)) {
+            VirtualThreadPool pool = VirtualThreadPool.create();
+            if (pool != null) {
+                System.setProperty(BoundedExecutor.INLINE_PROPERTY, "true");
+                System.out.println("[SERVER] Handling requests on virtual threads");
+                return pool;
+            }
+            System.out.println("[SERVER] Virtual threads need Java 21, using platform threads");
+        }
+        final QueuedThreadPool pool = new QueuedThreadPool();
+        pool.setMaxThreads(Math.max(1, Configuration.getInt("JETTY_MAX_THREADS", 200)));
+        pool.setMinThreads(Math.min(pool.getMaxThreads(), Configuration.getInt("JETTY_MIN_THREADS", 8)));
+        pool.setIdleTimeout(Configuration.getInt("JETTY_THREAD_IDLE_MS", 60000));
+        System.out.println("[SERVER] Handling requests on " + pool.getMinThreads() + " to " + pool.getMaxThreads()
+                + " threads");
+        return pool;
+    }
+
+    /**
+     * With GZIP_ENABLED=true the responses of the listed types and larger than
+     * GZIP_MIN_BYTES are compressed for the clients accepting gzip
+     *
+     * @param handler
+     *            the application
+     * @return the handler to serve
+     */
+    private static Handler compress(Handler handler) {
+        if (!Configuration.getBoolean("GZIP_ENABLED", false)) {
+            return handler;
+        }
+        final GzipHandler gzip = new GzipHandler();
+        gzip.setMinGzipSize(Configuration.getInt("GZIP_MIN_BYTES", 1024));
+        gzip.setMimeTypes(Configuration.getString("GZIP_MIME_TYPES", "application/json,application/xml,text/plain"));
+        gzip.setHandler(handler);
+        System.out.println("[SERVER] Compressing responses above " + gzip.getMinGzipSize() + " bytes");
+        return gzip;
+    }
 }
@@ -0,0 +1,111 @@
+package it.polimi.moscowmule.neighborhoodsecurity.heroku;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Jetty thread pool running every task on a new virtual thread. Virtual
+ * threads are created through reflection, so that the class still compiles
+ * for Java 7, and {@link #create()} returns null on older JVMs.
+ *
+ * There is no upper bound on the threads: the concurrency is limited by the
+ * database connection pool. On Java 21 the MySQL driver pins the carrier
+ * thread while it waits for the database, so set
+ * -Djdk.virtualThreadScheduler.parallelism to at least DB_POOL_MAX_SIZE (on
+ * Heroku through JAVA_TOOL_OPTIONS)
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+	private final ExecutorService executor;
+	private final AtomicInteger running = new AtomicInteger();
+
+	private VirtualThreadPool(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return a pool of virtual threads, or null if the JVM has none
+	 */
+	public static VirtualThreadPool create() {
+		try {
+			// Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jetty-virtual-", 0).factory())
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "jetty-virtual-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			ExecutorService executor = (ExecutorService) Executors.class
+					.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+			return new VirtualThreadPool(executor);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void execute(final Runnable job) {
+		running.incrementAndGet();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						job.run();
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			running.decrementAndGet();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean dispatch(Runnable job) {
+		try {
+			execute(job);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void join() throws InterruptedException {
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public int getThreads() {
+		return running.get();
+	}
+
+	@Override
+	public int getIdleThreads() {
+		return 0;
+	}
+
+	@Override
+	public boolean isLowOnThreads() {
+		return false;
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		executor.shutdown();
+		if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -3,6 +3,7 @@ package it.polimi.moscowmule.neighborhoodsecurity.user;
 import java.net.URI;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
@@ -11,6 +12,8 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
@@ -25,6 +28,7 @@ import it.polimi.moscowmule.neighborhoodsecurity.event.Event;
 import it.polimi.moscowmule.neighborhoodsecurity.event.EventStorage;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.Message;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.ProjectConstants;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.async.BoundedExecutor;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.EventDBException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoUserCreatedException;
 import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoUserFoundException;
@@ -55,43 +59,46 @@ public class UsersResource {
 	@POST
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
-	public Response createUser(@FormParam("username") String username, @FormParam("email") String email,
-			@FormParam("password") String password) {
-
-		if (!EmailValidator.getInstance().isValid(email)) {
-			return Response.status(Status.BAD_REQUEST).entity(new Message("USERS", "Email is not valid")).build();
-		}
-		// 8 characters, at least 1 lowercase, 1 uppercase, 1 number, no spaces
-		String pattern = "^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=\\S+$).{8,}$";
-		if (!password.matches(pattern)) {
-			return Response.status(Status.BAD_REQUEST)
-					.entity(new Message("USERS",
-							"Password must be 8 characters long, containing at least one uppercase, one lowercase and one number"))
-					.build();
-		}
-		// 4-20 characters, no special symbols and spaces
-		pattern = "^(?=.*[A-Za-z0-9])(?=\\S+$).{4,20}$";
-		if (!username.matches(pattern)) {
-			return Response.status(Status.BAD_REQUEST)
-					.entity(new Message("USERS",
-							"Username must be between 4 and 20 characters, not containing spaces or special symbols"))
-					.build();
-		}
-		User u = new User();
-		u.setCreated(new Date());
-		u.setEmail(email);
-		u.setUsername(username);
-		int id;
-		try {
-			id = UserStorage.instance.addWithPassword(u, password);
-			return Response.created(URI.create(ProjectConstants.USERS_BASE_URL + "/" + String.valueOf(id))).build();
-		} catch (UserDBException e) {
-			return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("USERS", e.getMessage())).build();
-		} catch (NoUserCreatedException e) {
-			return Response.status(Status.BAD_REQUEST).entity(new Message("USERS", "Username or email already in use"))
-					.build();
-		}
-
+	public void createUser(@Suspended AsyncResponse response, @FormParam("username") final String username,
+			@FormParam("email") final String email, @FormParam("password") final String password) {
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (!EmailValidator.getInstance().isValid(email)) {
+					return Response.status(Status.BAD_REQUEST).entity(new Message("USERS", "Email is not valid")).build();
+				}
+				// 8 characters, at least 1 lowercase, 1 uppercase, 1 number, no spaces
+				String pattern = "^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=\\S+$).{8,}$";
+				if (!password.matches(pattern)) {
+					return Response.status(Status.BAD_REQUEST)
+							.entity(new Message("USERS",
+									"Password must be 8 characters long, containing at least one uppercase, one lowercase and one number"))
+							.build();
+				}
+				// 4-20 characters, no special symbols and spaces
+				pattern = "^(?=.*[A-Za-z0-9])(?=\\S+$).{4,20}$";
+				if (!username.matches(pattern)) {
+					return Response.status(Status.BAD_REQUEST)
+							.entity(new Message("USERS",
+									"Username must be between 4 and 20 characters, not containing spaces or special symbols"))
+							.build();
+				}
+				User u = new User();
+				u.setCreated(new Date());
+				u.setEmail(email);
+				u.setUsername(username);
+				int id;
+				try {
+					id = UserStorage.instance.addWithPassword(u, password);
+					return Response.created(URI.create(ProjectConstants.USERS_BASE_URL + "/" + String.valueOf(id))).build();
+				} catch (UserDBException e) {
+					return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("USERS", e.getMessage())).build();
+				} catch (NoUserCreatedException e) {
+					return Response.status(Status.BAD_REQUEST).entity(new Message("USERS", "Username or email already in use"))
+							.build();
+				}
+			}
+		});
 	}
 
 	/**
@@ -105,20 +112,25 @@ public class UsersResource {
 	@Path("{id}")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getUser(@PathParam("id") String id) {
-		if (NumberUtils.isNumber(id)) {
-			User u;
-			try {
-				u = UserStorage.instance.getById(NumberUtils.toInt(id));
-				return Response.ok(u).build();
-			} catch (NoUserFoundException e) {
-				return Response.status(Status.NOT_FOUND).entity(new Message("USERS","No user with id " + id + " has been found")).build();
-			} catch (UserDBException e) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("USERS",e.getMessage())).build();
-			}
+	public void getUser(@Suspended AsyncResponse response, @PathParam("id") final String id) {
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (NumberUtils.isNumber(id)) {
+					User u;
+					try {
+						u = UserStorage.instance.getById(NumberUtils.toInt(id));
+						return Response.ok(u).build();
+					} catch (NoUserFoundException e) {
+						return Response.status(Status.NOT_FOUND).entity(new Message("USERS","No user with id " + id + " has been found")).build();
+					} catch (UserDBException e) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("USERS",e.getMessage())).build();
+					}
 
-		}
-		return Response.status(Status.BAD_REQUEST).entity(new Message("USERS","Id must be a valid positive integer!")).build();
+				}
+				return Response.status(Status.BAD_REQUEST).entity(new Message("USERS","Id must be a valid positive integer!")).build();
+			}
+		});
 	}
 
 	/**
@@ -132,22 +144,27 @@ public class UsersResource {
 	@Path("{id}/events")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getUserEvents(@PathParam("id") String id) {
-		if (NumberUtils.isNumber(id)) {
-			try {
-				// just used to generate exception if user does not exist!
-				UserStorage.instance.getById(NumberUtils.toInt(id));
-				// finding events for this user
-				List<Event> events = EventStorage.instance.getByUser(NumberUtils.toInt(id));
-				return Response.ok(events).build();
-			} catch (NoUserFoundException e) {
-				return Response.status(Status.NOT_FOUND).entity(new Message("USERS","No user with id " + id + " has been found")).build();
-			} catch (UserDBException | EventDBException e) {
-				return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("USERS",e.getMessage())).build();
-			}
+	public void getUserEvents(@Suspended AsyncResponse response, @PathParam("id") final String id) {
+		BoundedExecutor.DB.submit(response, new Callable<Response>() {
+			@Override
+			public Response call() {
+				if (NumberUtils.isNumber(id)) {
+					try {
+						// just used to generate exception if user does not exist!
+						UserStorage.instance.getById(NumberUtils.toInt(id));
+						// finding events for this user
+						List<Event> events = EventStorage.instance.getByUser(NumberUtils.toInt(id));
+						return Response.ok(events).build();
+					} catch (NoUserFoundException e) {
+						return Response.status(Status.NOT_FOUND).entity(new Message("USERS","No user with id " + id + " has been found")).build();
+					} catch (UserDBException | EventDBException e) {
+						return Response.status(Status.INTERNAL_SERVER_ERROR).entity(new Message("USERS",e.getMessage())).build();
+					}
 
-		}
-		return Response.status(Status.BAD_REQUEST).entity(new Message("USERS","Id must be a valid positive integer!")).build();
+				}
+				return Response.status(Status.BAD_REQUEST).entity(new Message("USERS","Id must be a valid positive integer!")).build();
+			}
+		});
 	}
 
 }
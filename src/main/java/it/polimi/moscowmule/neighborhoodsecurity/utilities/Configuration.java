@@ -0,0 +1,74 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+/**
+ * Access to the environment driven configuration of the application. Every
+ * value can be set as an environment variable (as done on Heroku) and falls
+ * back to the provided default if missing or malformed
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class Configuration {
+
+	/**
+	 * Reads a string value
+	 *
+	 * @param name
+	 *            of the environment variable
+	 * @param defaultValue
+	 *            returned if the variable is not set
+	 * @return the configured value
+	 */
+	public static String getString(String name, String defaultValue) {
+		String value = System.getenv(name);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	/**
+	 * Reads an integer value
+	 *
+	 * @param name
+	 *            of the environment variable
+	 * @param defaultValue
+	 *            returned if the variable is not set or not a number
+	 * @return the configured value
+	 */
+	public static int getInt(String name, int defaultValue) {
+		return NumberUtils.toInt(getString(name, null), defaultValue);
+	}
+
+	/**
+	 * Reads a long value
+	 *
+	 * @param name
+	 *            of the environment variable
+	 * @param defaultValue
+	 *            returned if the variable is not set or not a number
+	 * @return the configured value
+	 */
+	public static long getLong(String name, long defaultValue) {
+		return NumberUtils.toLong(getString(name, null), defaultValue);
+	}
+
+	/**
+	 * Reads a boolean value, "true", "1" and "yes" are considered true
+	 *
+	 * @param name
+	 *            of the environment variable
+	 * @param defaultValue
+	 *            returned if the variable is not set
+	 * @return the configured value
+	 */
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		return value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("yes");
+	}
+}
@@ -0,0 +1,71 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities;
+
+/**
+ * Geographic helper methods, distances are on a spherical earth
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class GeoUtils {
+
+	/**
+	 * mean earth radius in meters
+	 */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	/**
+	 * Great circle distance between two points, with the haversine formula
+	 *
+	 * @param latitude1
+	 * @param longitude1
+	 * @param latitude2
+	 * @param longitude2
+	 * @return the distance in meters
+	 */
+	public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double dLat = Math.toRadians(latitude2 - latitude1);
+		double dLon = Math.toRadians(longitude2 - longitude1);
+		double sinLat = Math.sin(dLat / 2);
+		double sinLon = Math.sin(dLon / 2);
+		double a = sinLat * sinLat
+				+ Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Smallest latitude/longitude rectangle containing a circle. The
+	 * longitude span is widened with the latitude, if the circle contains a
+	 * pole or crosses the antimeridian all longitudes are included
+	 *
+	 * @param latitude
+	 *            of the center
+	 * @param longitude
+	 *            of the center
+	 * @param radius
+	 *            in meters
+	 * @return [latitudeMin, latitudeMax, longitudeMin, longitudeMax]
+	 */
+	public static float[] boundingBox(double latitude, double longitude, double radius) {
+		double dLat = Math.toDegrees(radius / EARTH_RADIUS);
+		double latMin = latitude - dLat;
+		double latMax = latitude + dLat;
+		double lonMin, lonMax;
+		if (latMin <= -90 || latMax >= 90) {
+			lonMin = -180;
+			lonMax = 180;
+		} else {
+			double dLon = Math.toDegrees(Math.asin(Math.min(1, Math.sin(radius / EARTH_RADIUS)
+					/ Math.cos(Math.toRadians(latitude)))));
+			lonMin = longitude - dLon;
+			lonMax = longitude + dLon;
+			if (lonMin < -180 || lonMax > 180) {
+				lonMin = -180;
+				lonMax = 180;
+			}
+		}
+		// bounds are exclusive in the area queries, give them some room
+		float eps = 1e-5f;
+		return new float[] { (float) Math.max(-90, latMin) - eps, (float) Math.min(90, latMax) + eps,
+				(float) lonMin - eps, (float) lonMax + eps };
+	}
+}
@@ -25,6 +25,10 @@ public class Help {
     	txt += "\n + Service key must be passed as HTT header in 'service_key' field";
     	txt += "\n\n\tAvailable REST methods:";
     	txt += "\n + /events GET -> List of all events";
+    	txt += "\n     ?latMin&latMax&lonMin&lonMax -> in a rectangle";
+    	txt += "\n     ?lat&lon&radius[&sort=distance] -> within radius meters, with distance";
+    	txt += "\n     &limit[&cursor] -> newest first, next page in the 'Link: rel=next' header";
+    	txt += "\n + /events/clusters?bbox=lonMin,latMin,lonMax,latMax&zoom GET -> Events grouped by map cell";
     	txt += "\n + /events POST -> Create an event";
     	txt += "\n + /events/{id} GET -> Detail of an event";
     	txt += "\n + /events/{id} DELETE -> Delete an event";
@@ -35,6 +39,11 @@ public class Help {
     	txt += "\n + /users/{id}/events GET -> Events posted by an user";
     	txt += "\n + /auth/classic POST -> Login using username and password";
     	txt += "\n + /auth/logout POST -> Invalidates an authentication token";
+    	txt += "\n + /stats/database GET -> Usage of the database connection pool";
+    	txt += "\n + /stats/caches GET -> Size and hit rate of the in memory caches";
+    	txt += "\n + /stats/ratelimits GET -> Requests allowed and rejected by each rate limit";
+    	txt += "\n + /stats/geocoding GET -> Hit rate of the geocoding cache and latency of the geocoding service";
+    	txt += "\n + /stats/executors GET -> Threads, queue and rejections of the request executors";
 
     	return txt;
     }
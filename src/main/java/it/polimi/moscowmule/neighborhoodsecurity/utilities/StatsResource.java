@@ -0,0 +1,108 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities;
+
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import it.polimi.moscowmule.neighborhoodsecurity.geocoding.Geocoder;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.async.BoundedExecutor;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.async.ExecutorStats;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.cache.CacheStats;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.cache.LruCache;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.PoolStats;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.ratelimit.RateLimitStats;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.ratelimit.RateLimiter;
+
+/**
+ * Runtime statistics, exposed at /stats
+ * <ul>
+ * <li>GET /stats/database</li>
+ * <li>GET /stats/caches</li>
+ * <li>GET /stats/ratelimits</li>
+ * <li>GET /stats/geocoding</li>
+ * <li>GET /stats/executors</li>
+ * </ul>
+ *
+ * @author Simone Ripamonti
+ *
+ */
+@Path("stats")
+public class StatsResource {
+
+	/**
+	 * Usage of the database connection pool
+	 *
+	 * @return OK with the statistics, SERVICE_UNAVAILABLE if the pool has not
+	 *         been created
+	 */
+	@GET
+	@Path("database")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Response getDatabaseStats() {
+		PoolStats stats = Database.getPoolStats();
+		if (stats == null) {
+			return Response.status(Status.SERVICE_UNAVAILABLE)
+					.entity(new Message("STATS", "Connection pool not initialized")).build();
+		}
+		return Response.ok(stats).build();
+	}
+
+	/**
+	 * Usage of the in memory caches
+	 *
+	 * @return OK with the statistics of every cache
+	 */
+	@GET
+	@Path("caches")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Response getCacheStats() {
+		return Response.ok(new GenericEntity<List<CacheStats>>(LruCache.getAllStats()) {
+		}).build();
+	}
+
+	/**
+	 * Requests allowed and rejected by each rate limit
+	 *
+	 * @return OK with the statistics of every rate limit
+	 */
+	@GET
+	@Path("ratelimits")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Response getRateLimitStats() {
+		return Response.ok(new GenericEntity<List<RateLimitStats>>(RateLimiter.getAllStats()) {
+		}).build();
+	}
+
+	/**
+	 * Hits of the geocoding cache, in memory and in the table, and duration of
+	 * the calls to the geocoding service
+	 *
+	 * @return OK with the statistics
+	 */
+	@GET
+	@Path("geocoding")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Response getGeocodingStats() {
+		return Response.ok(Geocoder.instance.getStats()).build();
+	}
+
+	/**
+	 * Threads, queue and rejections of the executors of the suspended requests
+	 *
+	 * @return OK with the statistics of every executor
+	 */
+	@GET
+	@Path("executors")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Response getExecutorStats() {
+		return Response.ok(new GenericEntity<List<ExecutorStats>>(BoundedExecutor.getAllStats()) {
+		}).build();
+	}
+}
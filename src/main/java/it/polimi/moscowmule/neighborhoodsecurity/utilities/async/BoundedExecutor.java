@@ -0,0 +1,193 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Message;
+
+/**
+ * Runs the blocking work of suspended requests on a fixed number of threads
+ * with a bounded queue, so that a slow backend holds these threads and not
+ * the ones of Jetty. When the queue is full the request is answered at once
+ * with SERVICE_UNAVAILABLE, and so is a request still waiting after
+ * ASYNC_TIMEOUT_MS (default 15000). When the requests run on virtual threads
+ * (see {@link #INLINE_PROPERTY}) the work runs inline instead, blocking is
+ * cheap there and the connection pool limits the concurrency.
+ * <ul>
+ * <li>{@link #DB}: ASYNC_DB_THREADS (default DB_POOL_MAX_SIZE) and
+ * ASYNC_DB_QUEUE (default 200)</li>
+ * <li>{@link #GEOCODING}: ASYNC_GEOCODING_THREADS (default
+ * GEOCODING_MAX_CONNECTIONS) and ASYNC_GEOCODING_QUEUE (default 100)</li>
+ * </ul>
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class BoundedExecutor {
+
+	/**
+	 * system property set when the request threads are virtual
+	 */
+	public static final String INLINE_PROPERTY = "neighborhoodsecurity.async.inline";
+
+	private static final List<BoundedExecutor> EXECUTORS = new CopyOnWriteArrayList<BoundedExecutor>();
+	private static final long TIMEOUT = Configuration.getLong("ASYNC_TIMEOUT_MS", 15000);
+
+	/**
+	 * work reading or writing the database
+	 */
+	public static final BoundedExecutor DB = new BoundedExecutor("db",
+			Configuration.getInt("ASYNC_DB_THREADS", Configuration.getInt("DB_POOL_MAX_SIZE", 10)),
+			Configuration.getInt("ASYNC_DB_QUEUE", 200));
+	/**
+	 * work calling the geocoding service, and the database afterwards
+	 */
+	public static final BoundedExecutor GEOCODING = new BoundedExecutor("geocoding",
+			Configuration.getInt("ASYNC_GEOCODING_THREADS", Configuration.getInt("GEOCODING_MAX_CONNECTIONS", 20)),
+			Configuration.getInt("ASYNC_GEOCODING_QUEUE", 100));
+
+	private final String name;
+	private final int queueCapacity;
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+
+	/**
+	 * Creates and registers an executor
+	 *
+	 * @param name
+	 *            of the executor and of its threads
+	 * @param threads
+	 *            maximum number of concurrent tasks
+	 * @param queueCapacity
+	 *            tasks waiting for a thread, beyond that they are rejected
+	 */
+	public BoundedExecutor(final String name, int threads, int queueCapacity) {
+		this.name = name;
+		this.queueCapacity = Math.max(1, queueCapacity);
+		threads = Math.max(1, threads);
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(this.queueCapacity), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "async-" + name + "-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		EXECUTORS.add(this);
+	}
+
+	/**
+	 * Runs the work of a suspended request and resumes it with the result
+	 *
+	 * @param response
+	 *            of the suspended request
+	 * @param work
+	 *            builds the response, its exceptions are mapped as the ones
+	 *            of a synchronous resource method
+	 */
+	public void submit(final AsyncResponse response, final Callable<Response> work) {
+		if (Boolean.getBoolean(INLINE_PROPERTY)) {
+			resume(response, work);
+			return;
+		}
+		response.setTimeoutHandler(new TimeoutHandler() {
+			@Override
+			public void handleTimeout(AsyncResponse asyncResponse) {
+				timedOut.incrementAndGet();
+				asyncResponse.resume(unavailable("Request timed out, retry later"));
+			}
+		});
+		response.setTimeout(TIMEOUT, TimeUnit.MILLISECONDS);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (response.isDone()) {
+						// timed out while waiting in the queue
+						return;
+					}
+					resume(response, work);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			response.resume(unavailable("Too many requests in progress, retry later"));
+		}
+	}
+
+	private static void resume(AsyncResponse response, Callable<Response> work) {
+		try {
+			response.resume(work.call());
+		} catch (Throwable t) {
+			response.resume(t);
+		}
+	}
+
+	private static Response unavailable(String message) {
+		return Response.status(Status.SERVICE_UNAVAILABLE).header("Retry-After", "1")
+				.entity(new Message("SERVER", message)).build();
+	}
+
+	/**
+	 * Stops the threads, queued tasks are dropped and their requests time out
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return a snapshot of the usage
+	 */
+	public ExecutorStats getStats() {
+		ExecutorStats stats = new ExecutorStats();
+		stats.setName(name);
+		stats.setThreads(executor.getMaximumPoolSize());
+		stats.setActive(executor.getActiveCount());
+		stats.setQueued(executor.getQueue().size());
+		stats.setQueueCapacity(queueCapacity);
+		stats.setCompleted(executor.getCompletedTaskCount());
+		stats.setRejected(rejected.get());
+		stats.setTimedOut(timedOut.get());
+		return stats;
+	}
+
+	/**
+	 * @return the usage of every executor
+	 */
+	public static List<ExecutorStats> getAllStats() {
+		List<ExecutorStats> stats = new ArrayList<ExecutorStats>();
+		for (BoundedExecutor executor : EXECUTORS) {
+			stats.add(executor.getStats());
+		}
+		return stats;
+	}
+
+	/**
+	 * Stops every executor
+	 */
+	public static void shutdownAll() {
+		for (BoundedExecutor executor : EXECUTORS) {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.async;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Snapshot of the usage of a {@link BoundedExecutor}
+ *
+ * @author Simone Ripamonti
+ *
+ */
+@XmlRootElement
+public class ExecutorStats {
+	/**
+	 * name of the executor
+	 */
+	private String name;
+	/**
+	 * maximum number of concurrent tasks
+	 */
+	private int threads;
+	/**
+	 * tasks running
+	 */
+	private int active;
+	/**
+	 * tasks waiting for a thread
+	 */
+	private int queued;
+	/**
+	 * tasks that can wait, beyond that requests get SERVICE_UNAVAILABLE
+	 */
+	private int queueCapacity;
+	/**
+	 * tasks run
+	 */
+	private long completed;
+	/**
+	 * requests rejected because the queue was full
+	 */
+	private long rejected;
+	/**
+	 * requests answered with SERVICE_UNAVAILABLE after ASYNC_TIMEOUT_MS
+	 */
+	private long timedOut;
+
+	public ExecutorStats() {
+
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public void setActive(int active) {
+		this.active = active;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+	public void setQueued(int queued) {
+		this.queued = queued;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public long getCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(long completed) {
+		this.completed = completed;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public void setRejected(long rejected) {
+		this.rejected = rejected;
+	}
+
+	public long getTimedOut() {
+		return timedOut;
+	}
+
+	public void setTimedOut(long timedOut) {
+		this.timedOut = timedOut;
+	}
+
+}
@@ -0,0 +1,126 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.cache;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Snapshot of the usage of a cache
+ *
+ * @author Simone Ripamonti
+ *
+ */
+@XmlRootElement
+public class CacheStats {
+	/**
+	 * name of the cache
+	 */
+	private String name;
+	/**
+	 * entries currently cached
+	 */
+	private int size;
+	/**
+	 * configured upper bound of entries
+	 */
+	private int maxSize;
+	/**
+	 * configured time to live of an entry
+	 */
+	private long ttlMillis;
+	/**
+	 * lookups answered by the cache
+	 */
+	private long hits;
+	/**
+	 * lookups not answered by the cache
+	 */
+	private long misses;
+	/**
+	 * hits / (hits + misses)
+	 */
+	private double hitRate;
+	/**
+	 * entries removed because the cache was full
+	 */
+	private long evictions;
+	/**
+	 * entries removed because they were too old
+	 */
+	private long expirations;
+
+	public CacheStats() {
+
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	public double getHitRate() {
+		return hitRate;
+	}
+
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	public long getExpirations() {
+		return expirations;
+	}
+
+	public void setExpirations(long expirations) {
+		this.expirations = expirations;
+	}
+
+}
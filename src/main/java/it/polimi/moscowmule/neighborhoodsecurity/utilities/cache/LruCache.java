@@ -0,0 +1,291 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in memory cache, the least recently used entry is evicted when the
+ * cache is full and every entry expires after a fixed time to live. Every
+ * cache is registered by name and its counters are exposed at /stats/caches
+ *
+ * Large caches are split in up to {@link #MAX_SEGMENTS} segments by hash of
+ * the key, each with its own lock and its share of the size, so that
+ * concurrent lookups of different keys seldom wait for each other. Eviction
+ * is then least recently used within the segment only.
+ *
+ * @author Simone Ripamonti
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ */
+public class LruCache<K, V> {
+
+	private static final List<LruCache<?, ?>> CACHES = new CopyOnWriteArrayList<LruCache<?, ?>>();
+	/**
+	 * incremented by every invalidation of every cache, see {@link #stamp()}
+	 */
+	private static final AtomicLong VERSIONS = new AtomicLong();
+	private static final int MAX_SEGMENTS = 16;
+	/**
+	 * caches smaller than two segments of this size are not split
+	 */
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private final String name;
+	private final int maxSize;
+	private final long ttlMillis;
+	private final Segment<K, V>[] segments;
+
+	private static class Entry<V> {
+		/**
+		 * null if the key has been invalidated
+		 */
+		final V value;
+		final long expiresAt;
+		/**
+		 * version of the last invalidation of the key, 0 if none
+		 */
+		final long invalidated;
+
+		Entry(V value, long expiresAt, long invalidated) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.invalidated = invalidated;
+		}
+	}
+
+	private static class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+		private static final long serialVersionUID = 1L;
+
+		final int maxSize;
+		/**
+		 * highest invalidation version of the entries removed from the
+		 * segment, stands for the version of any key not in the segment
+		 */
+		long removed;
+		long hits;
+		long misses;
+		long evictions;
+		long expirations;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+			if (size() > maxSize) {
+				evictions++;
+				forget(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+
+		void forget(Entry<V> entry) {
+			removed = Math.max(removed, entry.invalidated);
+		}
+
+		/**
+		 * @return the version of the last invalidation of the key
+		 */
+		long invalidated(Entry<V> entry) {
+			return entry == null ? removed : entry.invalidated;
+		}
+	}
+
+	/**
+	 * Creates and registers a cache
+	 *
+	 * @param name
+	 *            shown in the statistics
+	 * @param maxSize
+	 *            maximum number of entries, 0 disables the cache
+	 * @param ttlMillis
+	 *            time to live of an entry
+	 */
+	@SuppressWarnings("unchecked")
+	public LruCache(String name, int maxSize, long ttlMillis) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxSize / MIN_SEGMENT_SIZE)));
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<K, V>(maxSize / count + (i < maxSize % count ? 1 : 0));
+		}
+		CACHES.add(this);
+	}
+
+	private Segment<K, V> segmentOf(Object key) {
+		if (key == null) {
+			return segments[0];
+		}
+		int h = key.hashCode();
+		return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+	}
+
+	/**
+	 * @param key
+	 * @return the cached value, or null if missing or expired
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentOf(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.get(key);
+			if (entry == null) {
+				segment.misses++;
+				return null;
+			}
+			if (entry.expiresAt <= System.currentTimeMillis()) {
+				segment.remove(key);
+				segment.forget(entry);
+				if (entry.value != null) {
+					segment.expirations++;
+				}
+				segment.misses++;
+				return null;
+			}
+			if (entry.value == null) {
+				segment.misses++;
+				return null;
+			}
+			segment.hits++;
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Current invalidation stamp. Read it before loading a value and pass it
+	 * to {@link #put(Object, Object, long)}, so that the value is not cached
+	 * if its key is invalidated meanwhile. Stamps of different caches can be
+	 * compared, a stamp read from one cache can be used with another one
+	 *
+	 * @return the stamp
+	 */
+	public long stamp() {
+		return VERSIONS.get();
+	}
+
+	/**
+	 * Caches a value
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(K key, V value) {
+		put(key, value, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Caches a value, unless its key has been invalidated after the stamp
+	 * was read
+	 *
+	 * @param key
+	 * @param value
+	 * @param stamp
+	 *            obtained from {@link #stamp()} before loading the value
+	 * @return true if the value has been cached
+	 */
+	public boolean put(K key, V value, long stamp) {
+		if (maxSize <= 0) {
+			return false;
+		}
+		Segment<K, V> segment = segmentOf(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.get(key);
+			long invalidated = segment.invalidated(entry);
+			if (invalidated > stamp) {
+				return false;
+			}
+			segment.put(key, new Entry<V>(value, System.currentTimeMillis() + ttlMillis,
+					entry == null ? 0 : entry.invalidated));
+			return true;
+		}
+	}
+
+	/**
+	 * Removes a value. The key is remembered as invalidated until it expires,
+	 * so that loads of the key started before are not cached
+	 *
+	 * @param key
+	 * @return the removed value, or null if it was not cached
+	 */
+	public V invalidate(K key) {
+		long version = VERSIONS.incrementAndGet();
+		Segment<K, V> segment = segmentOf(key);
+		synchronized (segment) {
+			Entry<V> entry;
+			if (maxSize > 0) {
+				entry = segment.put(key, new Entry<V>(null, System.currentTimeMillis() + ttlMillis, version));
+			} else {
+				entry = null;
+				segment.removed = version;
+			}
+			if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Removes every value
+	 */
+	public void invalidateAll() {
+		long version = VERSIONS.incrementAndGet();
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+				segment.removed = version;
+			}
+		}
+	}
+
+	/**
+	 * @return a snapshot of the counters
+	 */
+	public CacheStats getStats() {
+		int size = 0;
+		long hits = 0, misses = 0, evictions = 0, expirations = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+				hits += segment.hits;
+				misses += segment.misses;
+				evictions += segment.evictions;
+				expirations += segment.expirations;
+			}
+		}
+		CacheStats stats = new CacheStats();
+		stats.setName(name);
+		stats.setSize(size);
+		stats.setMaxSize(maxSize);
+		stats.setTtlMillis(ttlMillis);
+		stats.setHits(hits);
+		stats.setMisses(misses);
+		stats.setEvictions(evictions);
+		stats.setExpirations(expirations);
+		long requests = hits + misses;
+		stats.setHitRate(requests == 0 ? 0 : (double) hits / requests);
+		return stats;
+	}
+
+	/**
+	 * @return the counters of every cache
+	 */
+	public static List<CacheStats> getAllStats() {
+		List<CacheStats> stats = new ArrayList<CacheStats>();
+		for (LruCache<?, ?> cache : CACHES) {
+			stats.add(cache.getStats());
+		}
+		return stats;
+	}
+}
@@ -3,30 +3,160 @@ package it.polimi.moscowmule.neighborhoodsecurity.utilities.database;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+
+/**
+ * Access point to the JawsDB SQL database. Connections are served by a
+ * bounded pool which is created once, the first time it is needed (or at
+ * startup by {@link DatabaseListener}), from the JAWSDB_URL environment
+ * variable.
+ *
+ * Pool tuning is read from the environment:
+ * <ul>
+ * <li>DB_POOL_MAX_SIZE: maximum number of connections (default 10)</li>
+ * <li>DB_POOL_MIN_IDLE: connections kept open when idle (default 2)</li>
+ * <li>DB_POOL_MAX_WAIT_MS: how long a request waits for a free connection
+ * (default 5000)</li>
+ * <li>DB_POOL_IDLE_TIMEOUT_MS: idle time before a connection is closed
+ * (default 600000)</li>
+ * <li>DB_POOL_MAX_LIFETIME_MS: maximum life of a connection (default
+ * 1800000)</li>
+ * <li>DB_POOL_LEAK_DETECTION_MS: a connection borrowed for longer is logged as
+ * leaked, 0 disables (default 10000)</li>
+ * </ul>
+ *
+ * @author Simone Ripamonti
+ *
+ */
 public class Database {
+
+	private static volatile HikariDataSource dataSource;
+
 	/**
-	 * Creates a connection to the JawsDB SQL database
-	 * 
+	 * Borrows a connection from the pool, closing it gives it back
+	 *
 	 * @return the connection
 	 * @throws URISyntaxException
+	 *             if JAWSDB_URL is malformed
 	 * @throws SQLException
-	 * @throws ClassNotFoundException 
+	 *             if no connection is available within the max wait time
+	 * @throws ClassNotFoundException
+	 *             if the MySQL driver is missing
 	 */
 	public static Connection getConnection() throws URISyntaxException, SQLException, ClassNotFoundException {
-		
-		DriverManager.registerDriver(new com.mysql.jdbc.Driver());
-		
-	    URI jdbUri = new URI(System.getenv("JAWSDB_URL"));
-
-	    String username = jdbUri.getUserInfo().split(":")[0];
-	    String password = jdbUri.getUserInfo().split(":")[1];
-	    String port = String.valueOf(jdbUri.getPort());
-	    String jdbUrl = "jdbc:mysql://" + jdbUri.getHost() + ":" + port + jdbUri.getPath()+"?useSSL=false";	    
-	    
-	    return DriverManager.getConnection(jdbUrl, username, password);
+		return getDataSource().getConnection();
+	}
+
+	/**
+	 * Creates the pool if it does not exist yet
+	 *
+	 * @return the pooled data source
+	 * @throws URISyntaxException
+	 * @throws ClassNotFoundException
+	 */
+	public static HikariDataSource getDataSource() throws URISyntaxException, ClassNotFoundException {
+		HikariDataSource ds = dataSource;
+		if (ds == null) {
+			synchronized (Database.class) {
+				ds = dataSource;
+				if (ds == null) {
+					ds = createDataSource();
+					dataSource = ds;
+				}
+			}
+		}
+		return ds;
+	}
+
+	/**
+	 * Replaces the pool, closing the previous one. Used by the tests to run
+	 * the storage classes on an embedded database
+	 *
+	 * @param ds
+	 *            the new pool
+	 */
+	public static void setDataSource(HikariDataSource ds) {
+		synchronized (Database.class) {
+			if (dataSource != null) {
+				dataSource.close();
+			}
+			dataSource = ds;
+		}
+	}
+
+	/**
+	 * Closes all the pooled connections, used at shutdown
+	 */
+	public static void shutdown() {
+		synchronized (Database.class) {
+			if (dataSource != null) {
+				System.out.println("[DB] Closing connection pool");
+				dataSource.close();
+				dataSource = null;
+			}
+		}
+	}
+
+	/**
+	 * Current usage of the pool
+	 *
+	 * @return the statistics, or null if the pool has not been created yet
+	 */
+	public static PoolStats getPoolStats() {
+		HikariDataSource ds = dataSource;
+		if (ds == null) {
+			return null;
+		}
+		HikariPoolMXBean pool = ds.getHikariPoolMXBean();
+		PoolStats stats = new PoolStats();
+		stats.setMaximumPoolSize(ds.getMaximumPoolSize());
+		stats.setActiveConnections(pool.getActiveConnections());
+		stats.setIdleConnections(pool.getIdleConnections());
+		stats.setTotalConnections(pool.getTotalConnections());
+		stats.setThreadsAwaitingConnection(pool.getThreadsAwaitingConnection());
+		return stats;
 	}
-	
+
+	private static HikariDataSource createDataSource() throws URISyntaxException, ClassNotFoundException {
+		System.out.println("[DB] Creating connection pool");
+		Class.forName("com.mysql.jdbc.Driver");
+
+		URI jdbUri = new URI(System.getenv("JAWSDB_URL"));
+
+		String username = jdbUri.getUserInfo().split(":")[0];
+		String password = jdbUri.getUserInfo().split(":")[1];
+		String port = String.valueOf(jdbUri.getPort());
+		String jdbUrl = "jdbc:mysql://" + jdbUri.getHost() + ":" + port + jdbUri.getPath() + "?useSSL=false";
+
+		HikariConfig config = new HikariConfig();
+		config.setPoolName("neighborhoodsecurity");
+		config.setDriverClassName("com.mysql.jdbc.Driver");
+		config.setJdbcUrl(jdbUrl);
+		config.setUsername(username);
+		config.setPassword(password);
+		config.setMaximumPoolSize(Configuration.getInt("DB_POOL_MAX_SIZE", 10));
+		config.setMinimumIdle(Configuration.getInt("DB_POOL_MIN_IDLE", 2));
+		config.setConnectionTimeout(Configuration.getLong("DB_POOL_MAX_WAIT_MS", 5000));
+		config.setIdleTimeout(Configuration.getLong("DB_POOL_IDLE_TIMEOUT_MS", 600000));
+		config.setMaxLifetime(Configuration.getLong("DB_POOL_MAX_LIFETIME_MS", 1800000));
+		config.setLeakDetectionThreshold(Configuration.getLong("DB_POOL_LEAK_DETECTION_MS", 10000));
+		config.setRegisterMbeans(true);
+		// do not fail the startup if the database is temporarily unreachable
+		config.setInitializationFailTimeout(-1);
+		// server side statement cache, the storage classes always prepare the
+		// same handful of queries
+		config.addDataSourceProperty("cachePrepStmts", "true");
+		config.addDataSourceProperty("prepStmtCacheSize", "250");
+		config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+		config.addDataSourceProperty("useServerPrepStmts", "true");
+
+		return new HikariDataSource(config);
+	}
+
 }
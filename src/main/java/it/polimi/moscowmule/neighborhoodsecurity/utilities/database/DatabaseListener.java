@@ -0,0 +1,36 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.database;
+
+import java.net.URISyntaxException;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.async.BoundedExecutor;
+
+/**
+ * Creates the connection pool when the web application starts and closes it
+ * when it stops, after stopping the {@link BoundedExecutor}s using it
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class DatabaseListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent sce) {
+		try {
+			Database.getDataSource();
+		} catch (URISyntaxException | ClassNotFoundException | RuntimeException e) {
+			// do not prevent the startup, the pool will be created on first use
+			System.out.println("[DB] EXCEPTION in DatabaseListener.contextInitialized()");
+			System.out.println(e.getMessage());
+		}
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent sce) {
+		BoundedExecutor.shutdownAll();
+		Database.shutdown();
+	}
+
+}
@@ -0,0 +1,78 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.database;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Snapshot of the connection pool usage
+ *
+ * @author Simone Ripamonti
+ *
+ */
+@XmlRootElement
+public class PoolStats {
+	/**
+	 * configured upper bound of connections
+	 */
+	private int maximumPoolSize;
+	/**
+	 * connections currently borrowed
+	 */
+	private int activeConnections;
+	/**
+	 * connections open but not in use
+	 */
+	private int idleConnections;
+	/**
+	 * connections currently open
+	 */
+	private int totalConnections;
+	/**
+	 * requests waiting for a connection
+	 */
+	private int threadsAwaitingConnection;
+
+	public PoolStats() {
+
+	}
+
+	public int getMaximumPoolSize() {
+		return maximumPoolSize;
+	}
+
+	public void setMaximumPoolSize(int maximumPoolSize) {
+		this.maximumPoolSize = maximumPoolSize;
+	}
+
+	public int getActiveConnections() {
+		return activeConnections;
+	}
+
+	public void setActiveConnections(int activeConnections) {
+		this.activeConnections = activeConnections;
+	}
+
+	public int getIdleConnections() {
+		return idleConnections;
+	}
+
+	public void setIdleConnections(int idleConnections) {
+		this.idleConnections = idleConnections;
+	}
+
+	public int getTotalConnections() {
+		return totalConnections;
+	}
+
+	public void setTotalConnections(int totalConnections) {
+		this.totalConnections = totalConnections;
+	}
+
+	public int getThreadsAwaitingConnection() {
+		return threadsAwaitingConnection;
+	}
+
+	public void setThreadsAwaitingConnection(int threadsAwaitingConnection) {
+		this.threadsAwaitingConnection = threadsAwaitingConnection;
+	}
+
+}
@@ -0,0 +1,90 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.ratelimit;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Snapshot of the usage of a rate limit
+ *
+ * @author Simone Ripamonti
+ *
+ */
+@XmlRootElement
+public class RateLimitStats {
+	/**
+	 * name of the route
+	 */
+	private String route;
+	/**
+	 * configured refill rate of each client
+	 */
+	private int permitsPerMinute;
+	/**
+	 * configured burst of each client
+	 */
+	private int burst;
+	/**
+	 * clients currently tracked
+	 */
+	private int clients;
+	/**
+	 * requests let through
+	 */
+	private long allowed;
+	/**
+	 * requests answered with 429
+	 */
+	private long rejected;
+
+	public RateLimitStats() {
+
+	}
+
+	public String getRoute() {
+		return route;
+	}
+
+	public void setRoute(String route) {
+		this.route = route;
+	}
+
+	public int getPermitsPerMinute() {
+		return permitsPerMinute;
+	}
+
+	public void setPermitsPerMinute(int permitsPerMinute) {
+		this.permitsPerMinute = permitsPerMinute;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	public int getClients() {
+		return clients;
+	}
+
+	public void setClients(int clients) {
+		this.clients = clients;
+	}
+
+	public long getAllowed() {
+		return allowed;
+	}
+
+	public void setAllowed(long allowed) {
+		this.allowed = allowed;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public void setRejected(long rejected) {
+		this.rejected = rejected;
+	}
+
+}
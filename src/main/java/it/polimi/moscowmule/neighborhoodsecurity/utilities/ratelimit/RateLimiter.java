@@ -0,0 +1,131 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.math.NumberUtils;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.Configuration;
+
+/**
+ * Rate limit of a route, with one {@link TokenBucket} per client (service key
+ * or user). The limit is read from the environment variable
+ * RATE_LIMIT_&lt;ROUTE&gt; as "permitsPerMinute,burst", 0 permits disable it.
+ * Every limiter is registered and its counters are exposed at
+ * /stats/ratelimits
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class RateLimiter {
+
+	private static final List<RateLimiter> LIMITERS = new CopyOnWriteArrayList<RateLimiter>();
+	private static final boolean ENABLED = Configuration.getBoolean("RATE_LIMIT_ENABLED", true);
+	/**
+	 * above this number of buckets the full ones are dropped
+	 */
+	private static final int MAX_BUCKETS = Configuration.getInt("RATE_LIMIT_MAX_BUCKETS", 100000);
+
+	private final String route;
+	private final int permitsPerMinute;
+	private final int burst;
+	private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+	private final AtomicLong allowed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Creates and registers the limiter of a route
+	 *
+	 * @param route
+	 *            name of the route, RATE_LIMIT_&lt;ROUTE&gt; overrides the
+	 *            defaults
+	 * @param permitsPerMinute
+	 *            default rate
+	 * @param burst
+	 *            default burst
+	 */
+	public RateLimiter(String route, int permitsPerMinute, int burst) {
+		this.route = route;
+		String[] configured = Configuration
+				.getString("RATE_LIMIT_" + route.toUpperCase().replace('-', '_'), permitsPerMinute + "," + burst)
+				.split(",");
+		this.permitsPerMinute = NumberUtils.toInt(configured[0].trim(), permitsPerMinute);
+		this.burst = configured.length > 1 ? NumberUtils.toInt(configured[1].trim(), burst) : burst;
+		LIMITERS.add(this);
+	}
+
+	/**
+	 * Takes a permit for a client
+	 *
+	 * @param client
+	 *            service key or user
+	 * @return 0 if the request can go on, otherwise the seconds to wait
+	 */
+	public long acquire(String client) {
+		if (!ENABLED || permitsPerMinute <= 0) {
+			return 0;
+		}
+		TokenBucket bucket = buckets.get(client);
+		if (bucket == null) {
+			if (buckets.size() >= MAX_BUCKETS) {
+				dropFullBuckets();
+			}
+			TokenBucket created = new TokenBucket(permitsPerMinute, burst);
+			bucket = buckets.putIfAbsent(client, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		long wait = bucket.tryAcquire();
+		if (wait == 0) {
+			allowed.incrementAndGet();
+			return 0;
+		}
+		rejected.incrementAndGet();
+		// round up, Retry-After is in seconds
+		return (wait + 999999999L) / 1000000000L;
+	}
+
+	/**
+	 * Removes the buckets of the clients idle for a full refill period, a new
+	 * bucket is full anyway
+	 */
+	private void dropFullBuckets() {
+		Iterator<TokenBucket> it = buckets.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().isFull()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return a snapshot of the counters
+	 */
+	public RateLimitStats getStats() {
+		RateLimitStats stats = new RateLimitStats();
+		stats.setRoute(route);
+		stats.setPermitsPerMinute(permitsPerMinute);
+		stats.setBurst(burst);
+		stats.setClients(buckets.size());
+		stats.setAllowed(allowed.get());
+		stats.setRejected(rejected.get());
+		return stats;
+	}
+
+	/**
+	 * @return the counters of every limiter
+	 */
+	public static List<RateLimitStats> getAllStats() {
+		List<RateLimitStats> stats = new ArrayList<RateLimitStats>();
+		for (RateLimiter limiter : LIMITERS) {
+			stats.add(limiter.getStats());
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,69 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket. Instead of counting tokens it keeps the time at
+ * which the bucket will be full again, so that the whole state fits in a
+ * single compare and set
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class TokenBucket {
+	/**
+	 * nanoseconds needed to refill one token
+	 */
+	private final long interval;
+	/**
+	 * nanoseconds needed to refill the whole bucket
+	 */
+	private final long capacity;
+	/**
+	 * time at which the bucket is full, in System.nanoTime() scale
+	 */
+	private final AtomicLong fullAt;
+
+	/**
+	 * Creates a full bucket
+	 *
+	 * @param permitsPerMinute
+	 *            refill rate
+	 * @param burst
+	 *            size of the bucket
+	 */
+	public TokenBucket(int permitsPerMinute, int burst) {
+		this.interval = 60000000000L / Math.max(1, permitsPerMinute);
+		this.capacity = interval * Math.max(1, burst);
+		this.fullAt = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Takes a token if available
+	 *
+	 * @return 0 if the token has been taken, otherwise the nanoseconds to wait
+	 *         for the next token
+	 */
+	public long tryAcquire() {
+		while (true) {
+			long now = System.nanoTime();
+			long current = fullAt.get();
+			long start = current - now < 0 ? now : current;
+			long next = start + interval;
+			if (next - now > capacity) {
+				// empty
+				return next - now - capacity;
+			}
+			if (fullAt.compareAndSet(current, next)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * @return true if no token has been taken for a full refill period
+	 */
+	boolean isFull() {
+		return fullAt.get() - System.nanoTime() <= 0;
+	}
+}
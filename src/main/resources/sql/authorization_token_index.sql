@@ -0,0 +1,4 @@
+-- Index for the token lookups of Authenticator.getPrincipal(), done on
+-- every cache miss.
+
+CREATE INDEX AUTHORIZATION_TOKEN ON gsx95369n3oh2zo6.authorization (TOKEN);
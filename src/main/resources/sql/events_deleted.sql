@@ -0,0 +1,18 @@
+-- Tombstones of the deleted events, read by EventStorage when
+-- EVENTS_INDEX_TOMBSTONES=true: every instance removes them from its area
+-- index and its event cache on the incremental refresh
+-- (EVENTS_INDEX_REFRESH_SEC) instead of waiting for the next full rebuild.
+-- Old rows are purged by the instances themselves.
+--
+-- Rows deleted by a foreign key cascade do not fire triggers: those events
+-- leave the index on the next full rebuild (EVENTS_INDEX_REBUILD_MIN).
+
+CREATE TABLE gsx95369n3oh2zo6.events_deleted (
+	SEQ BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+	ID INT NOT NULL,
+	DELETED TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	INDEX EVENTS_DELETED_DATE (DELETED)
+) ENGINE=InnoDB;
+
+CREATE TRIGGER gsx95369n3oh2zo6.events_tombstone AFTER DELETE ON gsx95369n3oh2zo6.events
+	FOR EACH ROW INSERT INTO gsx95369n3oh2zo6.events_deleted (ID) VALUES (OLD.ID);
@@ -0,0 +1,7 @@
+-- Index for the keyset pagination of GET /events (ORDER BY DATE DESC, ID DESC).
+-- Events created before the date was always set have no DATE and could not
+-- be paginated, they are moved to the epoch.
+
+UPDATE gsx95369n3oh2zo6.events SET DATE = '1970-01-01' WHERE DATE IS NULL;
+
+CREATE INDEX EVENTS_DATE_ID ON gsx95369n3oh2zo6.events (DATE, ID);
@@ -0,0 +1,18 @@
+-- Point geometry of each event with a SPATIAL index, used by EventStorage
+-- when EVENTS_SPATIAL_INDEX=true. x is the longitude, y the latitude.
+--
+-- Run the three steps in order:
+-- 1. add the column, still nullable so that running instances keep working
+-- 2. deploy with EVENTS_SPATIAL_INDEX=true, new events now fill LOCATION,
+--    then backfill the existing rows
+-- 3. make the column mandatory and build the index (MySQL requires SPATIAL
+--    indexed columns to be NOT NULL)
+
+-- step 1
+ALTER TABLE gsx95369n3oh2zo6.events ADD COLUMN LOCATION POINT NULL;
+
+-- step 2
+UPDATE gsx95369n3oh2zo6.events SET LOCATION = POINT(LONGITUDE, LATITUDE) WHERE LOCATION IS NULL;
+
+-- step 3
+ALTER TABLE gsx95369n3oh2zo6.events MODIFY LOCATION POINT NOT NULL, ADD SPATIAL INDEX EVENTS_LOCATION (LOCATION);
@@ -0,0 +1,8 @@
+-- Denormalized number of votes of each event, maintained by
+-- EventStorage.vote()/unvote() and periodically checked by
+-- VoteCounterReconciler.
+
+ALTER TABLE gsx95369n3oh2zo6.events ADD COLUMN VOTES INT NOT NULL DEFAULT 0;
+
+UPDATE gsx95369n3oh2zo6.events e
+SET e.VOTES = (SELECT COUNT(*) FROM gsx95369n3oh2zo6.votes v WHERE v.EVENTID = e.ID);
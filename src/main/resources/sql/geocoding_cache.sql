@@ -0,0 +1,13 @@
+-- Persistent tier of GeocodingCache, enabled with GEOCODING_CACHE_TABLE=true.
+-- Addresses (LOOKUP_KEY 'a:...') store the coordinates, positions
+-- (LOOKUP_KEY 'r:...') store country, city and street.
+
+CREATE TABLE gsx95369n3oh2zo6.geocoding_cache (
+	LOOKUP_KEY VARCHAR(255) NOT NULL PRIMARY KEY,
+	LATITUDE FLOAT NULL,
+	LONGITUDE FLOAT NULL,
+	COUNTRY VARCHAR(255) NULL,
+	CITY VARCHAR(255) NULL,
+	STREET VARCHAR(255) NULL,
+	CREATED TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,5 @@
+-- Index for the login lookup of Authenticator.checkPassword(), by USERNAME.
+-- Skip it if USERNAME already has a unique key (UsersResource.createUser()
+-- relies on one to reject a username already in use).
+
+CREATE UNIQUE INDEX USERS_USERNAME ON gsx95369n3oh2zo6.users (USERNAME);
@@ -0,0 +1,32 @@
+-- One vote per user and event. EventStorage.vote() relies on this key to
+-- ignore a duplicate vote (its INSERT IGNORE adds no row); skip it if the
+-- primary key of votes is already (USERID, EVENTID).
+--
+-- The duplicates left by concurrent votes are deleted in place, keeping the
+-- first row of each (USERID, EVENTID) with all its columns. The table stays
+-- locked from the delete to the creation of the key, so votes cast meanwhile
+-- wait instead of being lost or making the ALTER fail. If votes already has
+-- an AUTO_INCREMENT primary key, use it in place of DEDUP_ID and skip adding
+-- and dropping the column.
+
+-- the multiple-table DELETE resolves its aliases in the default database
+USE gsx95369n3oh2zo6;
+
+-- identity of the rows, to choose which duplicate to keep
+ALTER TABLE gsx95369n3oh2zo6.votes ADD COLUMN DEDUP_ID BIGINT NOT NULL AUTO_INCREMENT UNIQUE;
+
+LOCK TABLES gsx95369n3oh2zo6.votes WRITE, gsx95369n3oh2zo6.votes AS v1 WRITE, gsx95369n3oh2zo6.votes AS v2 READ;
+
+DELETE v1 FROM gsx95369n3oh2zo6.votes AS v1
+JOIN gsx95369n3oh2zo6.votes AS v2
+ON v1.USERID = v2.USERID AND v1.EVENTID = v2.EVENTID AND v1.DEDUP_ID > v2.DEDUP_ID;
+
+ALTER TABLE gsx95369n3oh2zo6.votes
+ADD UNIQUE INDEX VOTES_USER_EVENT (USERID, EVENTID),
+DROP COLUMN DEDUP_ID;
+
+UNLOCK TABLES;
+
+-- fix the counters of the events that had duplicates
+UPDATE gsx95369n3oh2zo6.events e
+SET e.VOTES = (SELECT COUNT(*) FROM gsx95369n3oh2zo6.votes v WHERE v.EVENTID = e.ID);
@@ -0,0 +1,43 @@
+package it.polimi.moscowmule.neighborhoodsecurity.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SignedTokensTest {
+
+	private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+	@Test
+	public void testIssueAndVerify() {
+		SignedTokens tokens = new SignedTokens(SECRET, 60000);
+		String token = tokens.issue(42, true);
+		assertTrue(SignedTokens.isSigned(token));
+
+		UserPrincipal principal = tokens.verify(token);
+		assertEquals(42, principal.getUserId());
+		assertTrue(principal.isSuperuser());
+
+		// signed with another secret
+		assertNull(new SignedTokens(SECRET + "x", 60000).verify(token));
+		// tampered payload
+		assertNull(tokens.verify("X" + token.substring(1)));
+		assertNull(tokens.verify("not a token"));
+	}
+
+	@Test
+	public void testExpiryAndRevocation() throws InterruptedException {
+		SignedTokens expiring = new SignedTokens(SECRET, 0);
+		assertNull(expiring.verify(expiring.issue(1, false)));
+
+		SignedTokens tokens = new SignedTokens(SECRET, 60000);
+		String old = tokens.issue(1, false);
+		Thread.sleep(5);
+		tokens.revoke(1);
+		Thread.sleep(5);
+		assertNull(tokens.verify(old));
+		assertEquals(1, tokens.verify(tokens.issue(1, false)).getUserId());
+	}
+}
@@ -0,0 +1,70 @@
+package it.polimi.moscowmule.neighborhoodsecurity.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.Random;
+
+import it.polimi.moscowmule.neighborhoodsecurity.geocoding.Gazetteer;
+
+/**
+ * Measures the reverse lookups of the {@link Gazetteer}.
+ *
+ * It writes a temporary gazetteer of synthetic streets spread over northern
+ * Italy, maps it and looks up random positions, half of them near a street
+ * and half far from any. No network nor database is needed:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:target/dependency/* \
+ *     it.polimi.moscowmule.neighborhoodsecurity.benchmark.GazetteerBenchmark 1000000 200000
+ * </pre>
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class GazetteerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int places = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		Random random = new Random(11);
+		StringBuilder tsv = new StringBuilder();
+		float[][] positions = new float[places][];
+		for (int i = 0; i < places; i++) {
+			positions[i] = new float[] { 44.5f + random.nextFloat() * 1.5f, 7.5f + random.nextFloat() * 5f };
+			tsv.append(positions[i][0]).append('\t').append(positions[i][1]).append("\tItaly\tCity ")
+					.append(i % 5000).append("\tStreet ").append(i).append('\n');
+		}
+		File file = File.createTempFile("gazetteer", ".bin");
+		file.deleteOnExit();
+		Gazetteer.write(new BufferedReader(new StringReader(tsv.toString())), file);
+		tsv = null;
+
+		long start = System.nanoTime();
+		Gazetteer gazetteer = new Gazetteer(file, 0.002);
+		System.out.println(String.format(Locale.ROOT, "%d places (%d KB) indexed in %.1f ms", gazetteer.size(),
+				file.length() / 1024, (System.nanoTime() - start) / 1e6));
+
+		// warm up
+		run(gazetteer, positions, random, lookups / 10);
+		start = System.nanoTime();
+		int found = run(gazetteer, positions, random, lookups);
+		double micros = (System.nanoTime() - start) / 1e3 / lookups;
+		System.out.println(String.format(Locale.ROOT, "%d lookups, %d found, avg %.2f us", lookups, found, micros));
+	}
+
+	private static int run(Gazetteer gazetteer, float[][] positions, Random random, int lookups) {
+		int found = 0;
+		for (int i = 0; i < lookups; i++) {
+			float[] near = positions[random.nextInt(positions.length)];
+			float lat = i % 2 == 0 ? near[0] + 0.0003f : 30f + random.nextFloat();
+			float lon = i % 2 == 0 ? near[1] - 0.0003f : near[1];
+			if (gazetteer.nearest(lat, lon, 100) != null) {
+				found++;
+			}
+		}
+		return found;
+	}
+}
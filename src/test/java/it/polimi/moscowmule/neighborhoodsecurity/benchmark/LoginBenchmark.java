@@ -0,0 +1,109 @@
+package it.polimi.moscowmule.neighborhoodsecurity.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+
+import it.polimi.moscowmule.neighborhoodsecurity.authentication.Authenticator;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
+
+/**
+ * Measures the login lookup of {@link Authenticator#checkPassword} while the
+ * number of users grows, compared with the old users x secret cartesian JOIN.
+ *
+ * It fills two scratch tables (users_bench and secret_bench, in the database
+ * of JAWSDB_URL) up to each of the given sizes and logs in random users. The
+ * old query reads the whole secret table at each login, so it runs fewer
+ * logins. Use a local MySQL as stand-in for JawsDB:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:target/dependency/* \
+ *     it.polimi.moscowmule.neighborhoodsecurity.benchmark.LoginBenchmark 1000 10000 100000 1000000
+ * </pre>
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class LoginBenchmark {
+
+	private static final int LOGINS = 200;
+
+	private static final String OLD_QUERY = "SELECT users_bench.ID FROM users_bench JOIN secret_bench "
+			+ "WHERE USERNAME = ? AND PASSWORD = ?";
+	private static final String NEW_QUERY = "SELECT u.ID FROM users_bench u "
+			+ "JOIN secret_bench s ON s.ID = u.ID WHERE u.USERNAME = ? AND s.PASSWORD = ?";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			args = new String[] { "1000", "10000", "100000", "1000000" };
+		}
+		try (Connection connection = Database.getConnection()) {
+			Statement stmt = connection.createStatement();
+			stmt.execute("DROP TABLE IF EXISTS users_bench");
+			stmt.execute("DROP TABLE IF EXISTS secret_bench");
+			// same keys of the real tables: USERNAME is unique
+			stmt.execute("CREATE TABLE users_bench (ID INT AUTO_INCREMENT PRIMARY KEY, "
+					+ "USERNAME VARCHAR(20) NOT NULL, UNIQUE KEY USERS_BENCH_USERNAME (USERNAME)) ENGINE=InnoDB");
+			stmt.execute("CREATE TABLE secret_bench (ID INT PRIMARY KEY, PASSWORD VARCHAR(64) NOT NULL) ENGINE=InnoDB");
+
+			int users = 0;
+			for (String arg : args) {
+				int size = Integer.parseInt(arg);
+				fill(connection, users, size);
+				users = size;
+				stmt.execute("ANALYZE TABLE users_bench, secret_bench");
+
+				System.out.println(String.format("%8d users: indexed lookup avg %.3f ms", users,
+						measure(connection, NEW_QUERY, users, false)));
+				System.out.println(String.format("%8d users: cartesian JOIN avg %.3f ms", users,
+						measure(connection, OLD_QUERY, users, true)));
+			}
+		}
+		Database.shutdown();
+	}
+
+	private static void fill(Connection connection, int from, int to) throws Exception {
+		connection.setAutoCommit(false);
+		PreparedStatement user = connection.prepareStatement("INSERT INTO users_bench (ID, USERNAME) VALUES (?,?)");
+		PreparedStatement secret = connection.prepareStatement("INSERT INTO secret_bench (ID, PASSWORD) VALUES (?,?)");
+		for (int i = from + 1; i <= to; i++) {
+			user.setInt(1, i);
+			user.setString(2, "user" + i);
+			user.addBatch();
+			secret.setInt(1, i);
+			secret.setString(2, "Password" + i);
+			secret.addBatch();
+			if (i % 10000 == 0) {
+				user.executeBatch();
+				secret.executeBatch();
+				connection.commit();
+			}
+		}
+		user.executeBatch();
+		secret.executeBatch();
+		connection.commit();
+		connection.setAutoCommit(true);
+	}
+
+	/**
+	 * @return average latency of a login, in milliseconds
+	 */
+	private static double measure(Connection connection, String query, int users, boolean old) throws Exception {
+		Random random = new Random(users);
+		PreparedStatement stmt = connection.prepareStatement(query);
+		int logins = old ? Math.max(1, LOGINS / 20) : LOGINS;
+		long start = System.nanoTime();
+		for (int i = 0; i < logins; i++) {
+			int id = random.nextInt(users) + 1;
+			stmt.setString(1, "user" + id);
+			stmt.setString(2, "Password" + id);
+			ResultSet result = stmt.executeQuery();
+			if (!result.next() || result.getInt(1) != id) {
+				System.out.println("  login of user" + id + " returned a wrong id");
+			}
+		}
+		return (System.nanoTime() - start) / 1e6 / logins;
+	}
+}
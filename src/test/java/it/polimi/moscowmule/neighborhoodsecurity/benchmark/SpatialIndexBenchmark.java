@@ -0,0 +1,149 @@
+package it.polimi.moscowmule.neighborhoodsecurity.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Random;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
+
+/**
+ * Compares the area query on the LATITUDE/LONGITUDE B-tree with the one on
+ * the SPATIAL index of the LOCATION column.
+ *
+ * It creates and fills a scratch table (events_bench, in the database of
+ * JAWSDB_URL) with synthetic events spread over Europe, denser around a few
+ * cities, then runs the same random city sized boxes with both plans. Use a
+ * local MySQL 5.7+ as stand-in for JawsDB:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:target/dependency/* \
+ *     it.polimi.moscowmule.neighborhoodsecurity.benchmark.SpatialIndexBenchmark 5000000 200
+ * </pre>
+ *
+ * Pass "reuse" as third argument to skip the creation of the table.
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class SpatialIndexBenchmark {
+
+	private static final double[][] CITIES = { { 45.46, 9.19 }, { 41.90, 12.49 }, { 48.85, 2.35 },
+			{ 52.52, 13.40 }, { 40.41, -3.70 } };
+
+	public static void main(String[] args) throws Exception {
+		int events = args.length > 0 ? Integer.parseInt(args[0]) : 3000000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		boolean reuse = args.length > 2 && args[2].equals("reuse");
+
+		try (Connection connection = Database.getConnection()) {
+			if (!reuse) {
+				fill(connection, events);
+			}
+
+			String btree = "SELECT ID FROM events_bench WHERE LATITUDE < ? AND LATITUDE > ? AND LONGITUDE < ? AND LONGITUDE > ?";
+			String rtree = "SELECT ID FROM events_bench WHERE MBRContains(ST_GeomFromText(?), LOCATION)";
+			explain(connection, btree, false);
+			explain(connection, rtree, true);
+
+			Random random = new Random(7);
+			long btreeNanos = 0, rtreeNanos = 0, btreeRows = 0, rtreeRows = 0;
+			for (int q = 0; q < queries; q++) {
+				double[] city = CITIES[random.nextInt(CITIES.length)];
+				float latMin = (float) (city[0] - 0.05 + random.nextGaussian() * 0.02);
+				float lonMin = (float) (city[1] - 0.05 + random.nextGaussian() * 0.02);
+				float latMax = latMin + 0.04f, lonMax = lonMin + 0.06f;
+
+				long start = System.nanoTime();
+				btreeRows += count(bind(connection.prepareStatement(btree), latMin, latMax, lonMin, lonMax, false));
+				btreeNanos += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				rtreeRows += count(bind(connection.prepareStatement(rtree), latMin, latMax, lonMin, lonMax, true));
+				rtreeNanos += System.nanoTime() - start;
+			}
+			System.out.println(String.format("B-tree  avg %.2f ms, avg rows %d", btreeNanos / 1e6 / queries,
+					btreeRows / queries));
+			System.out.println(String.format("SPATIAL avg %.2f ms, avg rows %d", rtreeNanos / 1e6 / queries,
+					rtreeRows / queries));
+		}
+		Database.shutdown();
+	}
+
+	private static void fill(Connection connection, int events) throws Exception {
+		Statement stmt = connection.createStatement();
+		stmt.execute("DROP TABLE IF EXISTS events_bench");
+		stmt.execute("CREATE TABLE events_bench (ID INT AUTO_INCREMENT PRIMARY KEY, LATITUDE FLOAT NOT NULL, "
+				+ "LONGITUDE FLOAT NOT NULL, LOCATION POINT NOT NULL) ENGINE=InnoDB");
+
+		connection.setAutoCommit(false);
+		PreparedStatement insert = connection
+				.prepareStatement("INSERT INTO events_bench (LATITUDE, LONGITUDE, LOCATION) VALUES (?,?,POINT(?,?))");
+		Random random = new Random(42);
+		long start = System.nanoTime();
+		for (int i = 0; i < events; i++) {
+			float lat, lon;
+			if (random.nextBoolean()) {
+				double[] city = CITIES[random.nextInt(CITIES.length)];
+				lat = (float) (city[0] + random.nextGaussian() * 0.1);
+				lon = (float) (city[1] + random.nextGaussian() * 0.1);
+			} else {
+				lat = 36 + random.nextFloat() * 24;
+				lon = -10 + random.nextFloat() * 40;
+			}
+			insert.setFloat(1, lat);
+			insert.setFloat(2, lon);
+			insert.setFloat(3, lon);
+			insert.setFloat(4, lat);
+			insert.addBatch();
+			if (i % 10000 == 9999) {
+				insert.executeBatch();
+				connection.commit();
+			}
+		}
+		insert.executeBatch();
+		connection.commit();
+		connection.setAutoCommit(true);
+		System.out.println(String.format("Inserted %d events in %.1f s", events, (System.nanoTime() - start) / 1e9));
+
+		stmt.execute("CREATE INDEX EVENTS_BENCH_LATLON ON events_bench (LATITUDE, LONGITUDE)");
+		stmt.execute("CREATE SPATIAL INDEX EVENTS_BENCH_LOCATION ON events_bench (LOCATION)");
+		stmt.execute("ANALYZE TABLE events_bench");
+	}
+
+	private static PreparedStatement bind(PreparedStatement stmt, float latMin, float latMax, float lonMin,
+			float lonMax, boolean spatial) throws Exception {
+		if (spatial) {
+			stmt.setString(1,
+					String.format(Locale.ROOT,
+							"POLYGON((%1$.7f %3$.7f,%2$.7f %3$.7f,%2$.7f %4$.7f,%1$.7f %4$.7f,%1$.7f %3$.7f))", lonMin,
+							lonMax, latMin, latMax));
+		} else {
+			stmt.setFloat(1, latMax);
+			stmt.setFloat(2, latMin);
+			stmt.setFloat(3, lonMax);
+			stmt.setFloat(4, lonMin);
+		}
+		return stmt;
+	}
+
+	private static int count(PreparedStatement stmt) throws Exception {
+		ResultSet result = stmt.executeQuery();
+		int rows = 0;
+		while (result.next()) {
+			rows++;
+		}
+		return rows;
+	}
+
+	private static void explain(Connection connection, String query, boolean spatial) throws Exception {
+		ResultSet result = bind(connection.prepareStatement("EXPLAIN " + query), 45.4f, 45.5f, 9.1f, 9.3f, spatial)
+				.executeQuery();
+		while (result.next()) {
+			System.out.println(String.format("%s plan: type=%s key=%s rows=%s", spatial ? "SPATIAL" : "B-tree ",
+					result.getString("type"), result.getString("key"), result.getString("rows")));
+		}
+	}
+}
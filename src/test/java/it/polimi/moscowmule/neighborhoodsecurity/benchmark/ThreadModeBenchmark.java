@@ -0,0 +1,175 @@
+package it.polimi.moscowmule.neighborhoodsecurity.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import it.polimi.moscowmule.neighborhoodsecurity.heroku.VirtualThreadPool;
+
+/**
+ * Compares the embedded Jetty on the default pool of platform threads with
+ * the {@link VirtualThreadPool}, under the same load on the same machine.
+ *
+ * Each request models a blocking backend: it takes one of DB_POOL permits
+ * (the connection pool) for dbMillis, then waits remoteMillis for a remote
+ * call (the geocoding service) without holding a connection. Clients send
+ * requests back to back for the given seconds. Needs Java 21 for the virtual
+ * mode:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:target/dependency/* \
+ *     it.polimi.moscowmule.neighborhoodsecurity.benchmark.ThreadModeBenchmark 1000 10 5 100 10
+ * </pre>
+ *
+ * Arguments: clients, seconds, dbMillis, remoteMillis, connections.
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class ThreadModeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int dbMillis = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		int remoteMillis = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+		int connections = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		System.setProperty("http.maxConnections", String.valueOf(clients));
+
+		System.out.println(String.format(Locale.ROOT, "%d clients, %d s, %d ms in a pool of %d, %d ms remote",
+				clients, seconds, dbMillis, connections, remoteMillis));
+		run("platform", new QueuedThreadPool(), clients, seconds, dbMillis, remoteMillis, connections);
+		ThreadPool virtual = VirtualThreadPool.create();
+		if (virtual == null) {
+			System.out.println("virtual : needs Java 21");
+		} else {
+			run("virtual ", virtual, clients, seconds, dbMillis, remoteMillis, connections);
+		}
+	}
+
+	private static void run(String mode, ThreadPool pool, int clients, final int seconds, final int dbMillis,
+			final int remoteMillis, int connections) throws Exception {
+		final Semaphore database = new Semaphore(connections);
+		Server server = new Server(pool);
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(0);
+		connector.setAcceptQueueSize(clients);
+		server.addConnector(connector);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+					HttpServletResponse response) throws IOException {
+				try {
+					if (!database.tryAcquire(5, TimeUnit.SECONDS)) {
+						response.sendError(503);
+						baseRequest.setHandled(true);
+						return;
+					}
+					try {
+						Thread.sleep(dbMillis);
+					} finally {
+						database.release();
+					}
+					Thread.sleep(remoteMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				response.setContentType("application/json");
+				response.getWriter().write("{\"id\":1}");
+				baseRequest.setHandled(true);
+			}
+		});
+		server.start();
+		final URL url = new URL("http://localhost:" + connector.getLocalPort() + "/events/1");
+
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final List<long[]> latencies = new ArrayList<long[]>();
+		final long[] errors = new long[clients];
+		final CountDownLatch done = new CountDownLatch(clients);
+		for (int c = 0; c < clients; c++) {
+			// a request lasts at least dbMillis + remoteMillis, the last slot keeps the count
+			final long[] mine = new long[seconds * 1000 / Math.max(1, dbMillis + remoteMillis) + 2];
+			latencies.add(mine);
+			final int client = c;
+			Thread t = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int n = 0;
+					while (System.nanoTime() < end && n < mine.length) {
+						long start = System.nanoTime();
+						try {
+							HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+							conn.setConnectTimeout(30000);
+							conn.setReadTimeout(30000);
+							int status = conn.getResponseCode();
+							InputStream in = status == 200 ? conn.getInputStream() : conn.getErrorStream();
+							if (in != null) {
+								while (in.read() >= 0) {
+								}
+								in.close();
+							}
+							if (status != 200) {
+								errors[client]++;
+								continue;
+							}
+						} catch (IOException e) {
+							errors[client]++;
+							continue;
+						}
+						mine[n++] = System.nanoTime() - start;
+					}
+					mine[mine.length - 1] = n;
+					done.countDown();
+				}
+			}, "client-" + c);
+			t.setDaemon(true);
+			t.start();
+		}
+		done.await();
+		int peakThreads = pool.getThreads();
+		server.stop();
+
+		long count = 0, failed = 0;
+		for (int c = 0; c < clients; c++) {
+			count += latencies.get(c)[latencies.get(c).length - 1];
+			failed += errors[c];
+		}
+		long[] all = new long[(int) count];
+		int i = 0;
+		for (long[] mine : latencies) {
+			int n = (int) mine[mine.length - 1];
+			System.arraycopy(mine, 0, all, i, n);
+			i += n;
+		}
+		Arrays.sort(all);
+		System.out.println(String.format(Locale.ROOT,
+				"%s: %7.0f req/s, p50 %6.1f ms, p99 %7.1f ms, max %7.1f ms, %d errors, %d server threads at the end",
+				mode, count / (double) seconds, percentile(all, 0.50), percentile(all, 0.99),
+				percentile(all, 1.0), failed, peakThreads));
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))] / 1e6;
+	}
+}
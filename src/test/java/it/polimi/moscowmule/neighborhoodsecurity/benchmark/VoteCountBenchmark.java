@@ -0,0 +1,99 @@
+package it.polimi.moscowmule.neighborhoodsecurity.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.polimi.moscowmule.neighborhoodsecurity.event.EventStorage;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
+
+/**
+ * Compares the number of database round trips and the latency of an area
+ * query when votes are counted once per event (old behaviour) and when they
+ * are read together with the events (current {@link EventStorage#getByArea}).
+ *
+ * Round trips are measured with the server side "Questions" counter, so run
+ * it against a dedicated local MySQL (set JAWSDB_URL) with no other clients:
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:target/dependency/* \
+ *     it.polimi.moscowmule.neighborhoodsecurity.benchmark.VoteCountBenchmark 45.4 45.5 9.1 9.3 50
+ * </pre>
+ *
+ * @author Simone Ripamonti
+ *
+ */
+public class VoteCountBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		float latMin = Float.parseFloat(args[0]);
+		float latMax = Float.parseFloat(args[1]);
+		float lonMin = Float.parseFloat(args[2]);
+		float lonMax = Float.parseFloat(args[3]);
+		int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+		// warm up the pool and the server caches
+		EventStorage.instance.getByArea(latMin, latMax, lonMin, lonMax);
+		perEventCount(latMin, latMax, lonMin, lonMax);
+
+		long questions = questions();
+		long start = System.nanoTime();
+		int rows = 0;
+		for (int i = 0; i < iterations; i++) {
+			rows = perEventCount(latMin, latMax, lonMin, lonMax);
+		}
+		report("per event COUNT(*)", rows, iterations, questions, start);
+
+		questions = questions();
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			rows = EventStorage.instance.getByArea(latMin, latMax, lonMin, lonMax).size();
+		}
+		report("single query", rows, iterations, questions, start);
+
+		Database.shutdown();
+	}
+
+	/**
+	 * The read path before the votes were joined: one query for the area and
+	 * one COUNT(*) for every returned event
+	 */
+	private static int perEventCount(float latMin, float latMax, float lonMin, float lonMax) throws Exception {
+		List<Integer> ids = new ArrayList<Integer>();
+		try (Connection connection = Database.getConnection()) {
+			PreparedStatement getStmt = connection.prepareStatement(
+					"SELECT * FROM gsx95369n3oh2zo6.events WHERE LATITUDE < ? AND LATITUDE > ? AND LONGITUDE < ? AND LONGITUDE > ?");
+			getStmt.setFloat(1, latMax);
+			getStmt.setFloat(2, latMin);
+			getStmt.setFloat(3, lonMax);
+			getStmt.setFloat(4, lonMin);
+			ResultSet result = getStmt.executeQuery();
+			while (result.next()) {
+				ids.add(result.getInt(1));
+			}
+		}
+		for (int id : ids) {
+			EventStorage.instance.getVotes(id);
+		}
+		return ids.size();
+	}
+
+	private static long questions() throws Exception {
+		try (Connection connection = Database.getConnection()) {
+			ResultSet result = connection.createStatement().executeQuery("SHOW GLOBAL STATUS LIKE 'Questions'");
+			result.next();
+			return result.getLong(2);
+		}
+	}
+
+	private static void report(String name, int rows, int iterations, long questionsBefore, long start)
+			throws Exception {
+		double elapsedMs = (System.nanoTime() - start) / 1e6;
+		// the SHOW STATUS issued by questions() counts as one question
+		long roundTrips = questions() - questionsBefore - 1;
+		System.out.println(String.format("%-20s rows=%d round trips/request=%.1f avg latency=%.2f ms", name, rows,
+				(double) roundTrips / iterations, elapsedMs / iterations));
+	}
+}
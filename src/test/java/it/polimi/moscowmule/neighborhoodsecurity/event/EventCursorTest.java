@@ -0,0 +1,30 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Date;
+
+import org.junit.Test;
+
+public class EventCursorTest {
+
+	@Test
+	public void testRoundTrip() {
+		EventCursor cursor = new EventCursor(Date.valueOf("2017-04-12"), 1234);
+		String encoded = cursor.encode();
+		assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+
+		EventCursor decoded = EventCursor.decode(encoded);
+		assertEquals(Date.valueOf("2017-04-12"), decoded.getDate());
+		assertEquals(1234, decoded.getId());
+	}
+
+	@Test
+	public void testInvalid() {
+		assertNull(EventCursor.decode("not a cursor"));
+		assertNull(EventCursor.decode(""));
+		assertNull(EventCursor.decode(new EventCursor(Date.valueOf("2017-04-12"), 1).encode().substring(3)));
+	}
+}
@@ -0,0 +1,114 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EventGridIndexTest {
+
+	private static int[] sorted(int[] ids) {
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	@Test
+	public void testNotReadyUntilLoaded() {
+		EventGridIndex index = new EventGridIndex(0.01);
+		assertFalse(index.isReady());
+		index.load(new int[0], new float[0], new float[0], new byte[0], 0);
+		assertTrue(index.isReady());
+	}
+
+	@Test
+	public void testPutQueryRemove() {
+		EventGridIndex index = new EventGridIndex(0.01);
+		index.load(new int[] { 1, 2 }, new float[] { 45.47f, 45.48f }, new float[] { 9.18f, 9.19f }, new byte[2], 2);
+		index.put(3, 45.50f, 9.20f, EventType.THEFT);
+		index.put(4, -33.86f, 151.21f, EventType.ROBBERY);
+
+		assertArrayEquals(new int[] { 1, 2, 3 }, sorted(index.query(45.4f, 45.6f, 9.1f, 9.3f)));
+		assertArrayEquals(new int[] { 4 }, index.query(-34f, -33f, 151f, 152f));
+		assertEquals(4, index.getMaxId());
+
+		index.remove(2);
+		assertArrayEquals(new int[] { 1, 3 }, sorted(index.query(45.4f, 45.6f, 9.1f, 9.3f)));
+		assertEquals(3, index.size());
+	}
+
+	@Test
+	public void testBoundsAreExclusive() {
+		EventGridIndex index = new EventGridIndex(0.01);
+		index.load(new int[] { 1 }, new float[] { 45.5f }, new float[] { 9.2f }, new byte[1], 1);
+		assertEquals(0, index.query(45.5f, 45.6f, 9.1f, 9.3f).length);
+		assertEquals(0, index.query(45.4f, 45.6f, 9.2f, 9.3f).length);
+		assertEquals(1, index.query(45.4f, 45.6f, 9.1f, 9.3f).length);
+	}
+
+	@Test
+	public void testMatchesLinearScan() {
+		Random random = new Random(42);
+		int n = 5000;
+		int[] ids = new int[n];
+		float[] lats = new float[n];
+		float[] lons = new float[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = i + 1;
+			lats[i] = 45 + random.nextFloat();
+			lons[i] = 9 + random.nextFloat();
+		}
+		EventGridIndex index = new EventGridIndex(0.05);
+		index.load(ids, lats, lons, new byte[n], n);
+
+		for (int q = 0; q < 100; q++) {
+			float latMin = 44.8f + random.nextFloat(), lonMin = 8.8f + random.nextFloat();
+			float latMax = latMin + random.nextFloat() * 2, lonMax = lonMin + random.nextFloat() * 2;
+			int[] expected = new int[n];
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				if (lats[i] > latMin && lats[i] < latMax && lons[i] > lonMin && lons[i] < lonMax) {
+					expected[count++] = ids[i];
+				}
+			}
+			assertArrayEquals(Arrays.copyOf(expected, count), sorted(index.query(latMin, latMax, lonMin, lonMax)));
+		}
+	}
+
+	@Test
+	public void testCluster() {
+		EventGridIndex index = new EventGridIndex(0.01);
+		index.load(new int[0], new float[0], new float[0], new byte[0], 0);
+		index.put(1, 45.41f, 9.11f, EventType.THEFT);
+		index.put(2, 45.43f, 9.13f, EventType.THEFT);
+		index.put(3, 45.42f, 9.12f, EventType.ROBBERY);
+		index.put(4, 45.91f, 9.91f, EventType.THEFT);
+		// outside of the box
+		index.put(5, 46.5f, 9.5f, EventType.THEFT);
+
+		ClusterAccumulator accumulator = new ClusterAccumulator(0.5);
+		index.cluster(45f, 46f, 9f, 10f, accumulator);
+		List<EventCluster> clusters = accumulator.build();
+		assertEquals(2, clusters.size());
+		Collections.sort(clusters, new Comparator<EventCluster>() {
+			@Override
+			public int compare(EventCluster c1, EventCluster c2) {
+				return Integer.compare(c2.getCount(), c1.getCount());
+			}
+		});
+
+		EventCluster first = clusters.get(0);
+		assertEquals(3, first.getCount());
+		assertEquals(45.42, first.getLatitude(), 1e-4);
+		assertEquals(9.12, first.getLongitude(), 1e-4);
+		assertEquals(2, first.getTypes().size());
+		assertEquals(1, clusters.get(1).getCount());
+	}
+}
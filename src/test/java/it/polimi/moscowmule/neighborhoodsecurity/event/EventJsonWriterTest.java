@@ -0,0 +1,43 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class EventJsonWriterTest {
+
+	@Test
+	public void testEmpty() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new EventJsonWriter(out, 10).close();
+		assertEquals("[]", out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testOmitsNullsAndKeepsOrder() throws Exception {
+		Event e = new Event();
+		e.setId(3);
+		e.setEventType(EventType.THEFT);
+		e.setDescription("a \"quoted\" text");
+		e.setLatitude(45.5f);
+		e.setLongitude(9.25f);
+		e.setSubmitterId(2);
+		e.setVotes(1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		EventJsonWriter writer = new EventJsonWriter(out, 1);
+		writer.accept(e);
+		writer.accept(e);
+		writer.close();
+
+		String json = out.toString("UTF-8");
+		String expected = "{\"description\":\"a \\\"quoted\\\" text\",\"eventType\":\"THEFT\",\"eventUrl\":\""
+				+ e.getEventUrl() + "\",\"id\":3,\"latitude\":45.5,\"longitude\":9.25,\"submitterId\":2,\"submitterUrl\":\""
+				+ e.getSubmitterUrl() + "\",\"votes\":1}";
+		assertEquals("[" + expected + "," + expected + "]", json);
+		assertTrue(!json.contains("city") && !json.contains("date") && !json.contains("distance"));
+	}
+}
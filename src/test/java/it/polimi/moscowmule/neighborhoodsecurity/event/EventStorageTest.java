@@ -0,0 +1,96 @@
+package it.polimi.moscowmule.neighborhoodsecurity.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.database.Database;
+import it.polimi.moscowmule.neighborhoodsecurity.utilities.exceptions.NoEventFoundException;
+
+public class EventStorageTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		HikariConfig config = new HikariConfig();
+		config.setJdbcUrl("jdbc:h2:mem:events;MODE=MySQL;DB_CLOSE_DELAY=-1");
+		config.setMaximumPoolSize(2);
+		Database.setDataSource(new HikariDataSource(config));
+		try (Connection connection = Database.getDataSource().getConnection();
+				Statement stmt = connection.createStatement()) {
+			stmt.execute("CREATE SCHEMA IF NOT EXISTS gsx95369n3oh2zo6");
+			stmt.execute("CREATE TABLE gsx95369n3oh2zo6.events (ID INT AUTO_INCREMENT PRIMARY KEY, DATE DATE, "
+					+ "EVENTTYPE VARCHAR(45), DESCRIPTION VARCHAR(255), COUNTRY VARCHAR(45), CITY VARCHAR(45), "
+					+ "STREET VARCHAR(45), LATITUDE FLOAT, LONGITUDE FLOAT, SUBMITTERID INT, VOTES INT DEFAULT 0)");
+			stmt.execute("INSERT INTO gsx95369n3oh2zo6.events VALUES "
+					+ "(1, '2017-04-12', 'THEFT', 'bike', 'Italy', 'Milano', 'Via Golgi', 45.478, 9.227, 7, 0), "
+					+ "(2, '2017-04-13', 'THEFT', 'car', 'Italy', 'Milano', 'Via Bonardi', 45.477, 9.229, 7, 0)");
+			stmt.execute("CREATE TABLE gsx95369n3oh2zo6.users (ID INT AUTO_INCREMENT PRIMARY KEY, USERNAME VARCHAR(45))");
+			stmt.execute("INSERT INTO gsx95369n3oh2zo6.users VALUES (7, 'simone')");
+			stmt.execute("CREATE TABLE gsx95369n3oh2zo6.votes (USERID INT, EVENTID INT, "
+					+ "UNIQUE KEY VOTES_USER_EVENT (USERID, EVENTID))");
+		}
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		Database.shutdown();
+	}
+
+	@Test
+	public void testRemoveInvalidatesCache() throws Exception {
+		// cached by the first lookup
+		assertEquals("bike", EventStorage.instance.getById(1).getDescription());
+		assertEquals("bike", EventStorage.instance.getById(1).getDescription());
+
+		assertTrue(EventStorage.instance.remove(1));
+		try {
+			EventStorage.instance.getById(1);
+			fail("removed event served from the cache");
+		} catch (NoEventFoundException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testVoteOutcomes() throws Exception {
+		assertEquals(VoteOutcome.CREATED, EventStorage.instance.vote(7, 2));
+		assertEquals(VoteOutcome.ALREADY_VOTED, EventStorage.instance.vote(7, 2));
+		assertEquals(VoteOutcome.NO_EVENT, EventStorage.instance.vote(7, 99));
+		assertEquals(1, EventStorage.instance.getVotes(2));
+		assertEquals(1, EventStorage.instance.getById(2).getVotes());
+
+		assertEquals(VoteOutcome.REMOVED, EventStorage.instance.unvote(7, 2));
+		assertEquals(VoteOutcome.NOT_VOTED, EventStorage.instance.unvote(7, 2));
+		assertEquals(VoteOutcome.NO_EVENT, EventStorage.instance.unvote(7, 99));
+		assertEquals(0, EventStorage.instance.getVotes(2));
+		assertEquals(0, EventStorage.instance.getById(2).getVotes());
+	}
+
+	@Test
+	public void testStreamHoldsNoConnectionWhileConsuming() throws Exception {
+		final HikariDataSource dataSource = Database.getDataSource();
+		final List<String> descriptions = new ArrayList<String>();
+		int count = EventStorage.instance.streamByArea(45.476f, 45.4775f, 9.228f, 9.23f, new EventConsumer() {
+			@Override
+			public void accept(Event e) {
+				assertEquals(0, dataSource.getHikariPoolMXBean().getActiveConnections());
+				descriptions.add(e.getDescription());
+			}
+		});
+		assertEquals(1, count);
+		assertEquals(Arrays.asList("car"), descriptions);
+	}
+}
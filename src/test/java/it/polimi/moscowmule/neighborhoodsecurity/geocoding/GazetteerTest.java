@@ -0,0 +1,55 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GazetteerTest {
+
+	private static final String PLACES = "# latitude\tlongitude\tcountry\tcity\tstreet\n"
+			+ "45.47812\t9.22731\tItaly\tMilano\tPiazza Leonardo da Vinci, 32\n"
+			+ "45.47900\t9.22600\tItaly\tMilano\tVia Golgi\n"
+			+ "45.80840\t9.08520\tItaly\tComo\t\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Gazetteer build(double cellSize) throws IOException {
+		File file = folder.newFile();
+		Gazetteer.write(new BufferedReader(new StringReader(PLACES)), file);
+		return new Gazetteer(file, cellSize);
+	}
+
+	@Test
+	public void testNearestPlace() throws IOException {
+		Gazetteer gazetteer = build(0.002);
+		assertEquals(3, gazetteer.size());
+		assertArrayEquals(new String[] { "Italy", "Milano", "Piazza Leonardo da Vinci, 32" },
+				gazetteer.nearest(45.4782f, 9.2274f, 100));
+		assertArrayEquals(new String[] { "Italy", "Milano", "Via Golgi" }, gazetteer.nearest(45.4789f, 9.2261f, 100));
+		// missing street
+		assertArrayEquals(new String[] { "Italy", "Como", null }, gazetteer.nearest(45.8084f, 9.0852f, 100));
+	}
+
+	@Test
+	public void testNothingWithinDistance() throws IOException {
+		Gazetteer gazetteer = build(0.002);
+		assertNull(gazetteer.nearest(45.60f, 9.10f, 100));
+		// found with a larger distance, across several cells
+		assertArrayEquals(new String[] { "Italy", "Como", null }, gazetteer.nearest(45.80f, 9.08f, 2000));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAGazetteer() throws IOException {
+		new Gazetteer(folder.newFile(), 0.002);
+	}
+}
@@ -0,0 +1,46 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GeocodingCacheTest {
+
+	@Test
+	public void testAddressKeyIsNormalized() {
+		assertEquals(GeocodingCache.addressKey("Italy", "Milano", "Via Golgi"),
+				GeocodingCache.addressKey(" italy ", "MILANO", "via  golgi"));
+		assertEquals(GeocodingCache.addressKey("Italia", "Cantù", "Via Roma"),
+				GeocodingCache.addressKey("Italia", "Cantu", "Via Roma"));
+		assertNotEquals(GeocodingCache.addressKey("Italy", "Milano", "Via Golgi"),
+				GeocodingCache.addressKey("Italy", "Milano", "Via Roma"));
+	}
+
+	@Test
+	public void testNearbyPositionsShareTheEntry() {
+		GeocodingCache cache = GeocodingCache.instance;
+		String[] address = { "Italy", "Milano", "Piazza Leonardo da Vinci, 32" };
+		cache.putAddress(45.47812f, 9.22731f, address);
+
+		// same cell at the default precision of 4 decimals
+		assertArrayEquals(address, cache.getAddress(45.47811f, 9.22732f));
+		assertNull(cache.getAddress(45.4790f, 9.2273f));
+	}
+
+	@Test
+	public void testNotFoundIsRememberedApart() {
+		GeocodingCache cache = GeocodingCache.instance;
+		assertFalse(cache.isAddressNotFound(-30.0001f, -20.0001f));
+		cache.putAddressNotFound(-30.0001f, -20.0001f);
+
+		assertTrue(cache.isAddressNotFound(-30.00012f, -20.00009f));
+		// not an address, nor a missing one for the coordinates lookups
+		assertNull(cache.getAddress(-30.0001f, -20.0001f));
+		assertFalse(cache.isCoordinatesNotFound("Atlantic", "", ""));
+	}
+}
@@ -0,0 +1,61 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import it.polimi.moscowmule.neighborhoodsecurity.geocoding.GoogleGeocodingProvider.Answer;
+
+public class GoogleGeocodingProviderTest {
+
+	private static final String ANSWER = "{\"results\":[{\"address_components\":["
+			+ "{\"long_name\":\"32\",\"short_name\":\"32\",\"types\":[\"street_number\"]},"
+			+ "{\"long_name\":\"Piazza Leonardo da Vinci\",\"short_name\":\"P.za Leonardo da Vinci\",\"types\":[\"route\"]},"
+			+ "{\"long_name\":\"Milano\",\"short_name\":\"Milano\",\"types\":[\"administrative_area_level_3\",\"political\"]},"
+			+ "{\"long_name\":\"Italy\",\"short_name\":\"IT\",\"types\":[\"country\",\"political\"]},"
+			+ "{\"long_name\":\"20133\",\"short_name\":\"20133\",\"types\":[]}],"
+			+ "\"formatted_address\":\"Piazza Leonardo da Vinci, 32, 20133 Milano MI, Italy\","
+			+ "\"geometry\":{\"bounds\":{\"northeast\":{\"lat\":45.5,\"lng\":9.3}},"
+			+ "\"location\":{\"lat\":45.4781236,\"lng\":9.2273104},\"location_type\":\"ROOFTOP\"},"
+			+ "\"place_id\":\"x\",\"types\":[\"street_address\"]},"
+			+ "{\"address_components\":[{\"long_name\":\"Other\",\"types\":[\"country\"]}],"
+			+ "\"geometry\":{\"location\":{\"lat\":1,\"lng\":2}}}],\"status\":\"OK\"}";
+
+	private static Answer parse(String json) throws IOException {
+		return GoogleGeocodingProvider.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testFirstResultIsRead() throws IOException {
+		Answer answer = parse(ANSWER);
+		assertArrayEquals(new float[] { 45.4781236f, 9.2273104f }, GoogleGeocodingProvider.parseCoordinates(answer),
+				0f);
+		assertArrayEquals(new String[] { "Italy", "Milano", "Piazza Leonardo da Vinci, 32" },
+				GoogleGeocodingProvider.parseAddress(answer));
+	}
+
+	@Test
+	public void testZeroResults() throws IOException {
+		Answer answer = parse("{\"results\":[],\"status\":\"ZERO_RESULTS\"}");
+		assertNull(GoogleGeocodingProvider.parseCoordinates(answer));
+		assertNull(GoogleGeocodingProvider.parseAddress(answer));
+	}
+
+	@Test
+	public void testRefusedQuery() throws IOException {
+		Answer answer = parse("{\"error_message\":\"quota\",\"results\":[],\"status\":\"OVER_QUERY_LIMIT\"}");
+		try {
+			GoogleGeocodingProvider.parseAddress(answer);
+		} catch (IOException e) {
+			assertEquals("Geocoding API status OVER_QUERY_LIMIT", e.getMessage());
+			return;
+		}
+		throw new AssertionError("refused query not reported");
+	}
+}
@@ -0,0 +1,135 @@
+package it.polimi.moscowmule.neighborhoodsecurity.geocoding;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LookupCoalescerTest {
+
+	private final ExecutorService pool = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * A lookup blocked until released, counting its calls
+	 */
+	private static class BlockedLookup implements LookupCoalescer.Lookup<String> {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final boolean fail;
+
+		BlockedLookup(boolean fail) {
+			this.fail = fail;
+		}
+
+		@Override
+		public String call() throws IOException {
+			calls.incrementAndGet();
+			started.countDown();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			if (fail) {
+				throw new IOException("failed");
+			}
+			return "Milano";
+		}
+	}
+
+	private Future<String> submit(final LookupCoalescer<String> coalescer, final LookupCoalescer.Lookup<String> lookup) {
+		return pool.submit(new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				return coalescer.get("r:454781,92273", lookup);
+			}
+		});
+	}
+
+	private static void awaitShared(LookupCoalescer<?> coalescer, long shared) throws InterruptedException {
+		while (coalescer.getShared() < shared) {
+			Thread.sleep(1);
+		}
+	}
+
+	@Test
+	public void testConcurrentLookupsShareOneCall() throws Exception {
+		LookupCoalescer<String> coalescer = new LookupCoalescer<String>(5000);
+		BlockedLookup lookup = new BlockedLookup(false);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		results.add(submit(coalescer, lookup));
+		lookup.started.await();
+		for (int i = 0; i < 4; i++) {
+			results.add(submit(coalescer, lookup));
+		}
+		awaitShared(coalescer, 4);
+		lookup.release.countDown();
+
+		for (Future<String> result : results) {
+			assertEquals("Milano", result.get());
+		}
+		assertEquals(1, lookup.calls.get());
+		assertEquals(0, coalescer.getFallbacks());
+
+		// the next lookup is not shared anymore
+		assertEquals("Milano", submit(coalescer, lookup).get());
+		assertEquals(2, lookup.calls.get());
+	}
+
+	@Test
+	public void testFailedSharedCallFallsBack() throws Exception {
+		LookupCoalescer<String> coalescer = new LookupCoalescer<String>(5000);
+		BlockedLookup failing = new BlockedLookup(true);
+		BlockedLookup working = new BlockedLookup(false);
+		working.release.countDown();
+
+		Future<String> leader = submit(coalescer, failing);
+		failing.started.await();
+		Future<String> follower = submit(coalescer, working);
+		awaitShared(coalescer, 1);
+		failing.release.countDown();
+
+		try {
+			leader.get();
+			throw new AssertionError("failure not reported to the caller running the lookup");
+		} catch (ExecutionException e) {
+			assertEquals("failed", e.getCause().getMessage());
+		}
+		assertEquals("Milano", follower.get());
+		assertEquals(1, coalescer.getFallbacks());
+	}
+
+	@Test
+	public void testSlowSharedCallFallsBack() throws Exception {
+		LookupCoalescer<String> coalescer = new LookupCoalescer<String>(20);
+		BlockedLookup slow = new BlockedLookup(false);
+		BlockedLookup fast = new BlockedLookup(false);
+		fast.release.countDown();
+
+		Future<String> leader = submit(coalescer, slow);
+		slow.started.await();
+		assertEquals("Milano", submit(coalescer, fast).get());
+		assertEquals(1, coalescer.getFallbacks());
+
+		slow.release.countDown();
+		assertEquals("Milano", leader.get());
+	}
+}
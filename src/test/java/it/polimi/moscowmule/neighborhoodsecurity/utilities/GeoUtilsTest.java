@@ -0,0 +1,48 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GeoUtilsTest {
+
+	@Test
+	public void testDistance() {
+		// Milano Duomo - Politecnico di Milano, about 3.3 km
+		assertEquals(3300, GeoUtils.distance(45.4642, 9.1900, 45.4781, 9.2274), 50);
+		// one degree of latitude
+		assertEquals(111195, GeoUtils.distance(0, 0, 1, 0), 10);
+		assertEquals(0, GeoUtils.distance(45, 9, 45, 9), 1e-9);
+	}
+
+	@Test
+	public void testBoundingBoxContainsCircle() {
+		double[][] centers = { { 0, 0 }, { 45.46, 9.19 }, { 69.65, 18.96 }, { -33.86, 151.21 } };
+		double radius = 5000;
+		for (double[] c : centers) {
+			float[] box = GeoUtils.boundingBox(c[0], c[1], radius);
+			// points at the radius in the four directions must be inside
+			for (int bearing = 0; bearing < 360; bearing += 10) {
+				double b = Math.toRadians(bearing);
+				double d = radius / GeoUtils.EARTH_RADIUS;
+				double lat1 = Math.toRadians(c[0]), lon1 = Math.toRadians(c[1]);
+				double lat2 = Math.asin(Math.sin(lat1) * Math.cos(d) + Math.cos(lat1) * Math.sin(d) * Math.cos(b));
+				double lon2 = lon1 + Math.atan2(Math.sin(b) * Math.sin(d) * Math.cos(lat1),
+						Math.cos(d) - Math.sin(lat1) * Math.sin(lat2));
+				double lat = Math.toDegrees(lat2), lon = Math.toDegrees(lon2);
+				assertTrue(lat > box[0] && lat < box[1]);
+				assertTrue(lon > box[2] && lon < box[3]);
+			}
+		}
+	}
+
+	@Test
+	public void testBoundingBoxWidensWithLatitude() {
+		float[] equator = GeoUtils.boundingBox(0, 0, 10000);
+		float[] north = GeoUtils.boundingBox(60, 0, 10000);
+		assertEquals(equator[1] - equator[0], north[1] - north[0], 1e-4);
+		// at 60 degrees a degree of longitude is half as long
+		assertEquals(2 * (equator[3] - equator[2]), north[3] - north[2], 1e-3);
+	}
+}
@@ -0,0 +1,66 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.async;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.Test;
+
+public class BoundedExecutorTest extends JerseyTest {
+
+	private static final BoundedExecutor EXECUTOR = new BoundedExecutor("test", 1, 1);
+	private static final CountDownLatch started = new CountDownLatch(1);
+	private static final CountDownLatch release = new CountDownLatch(1);
+
+	@Path("slow")
+	public static class SlowResource {
+		@GET
+		public void get(@Suspended AsyncResponse response) {
+			EXECUTOR.submit(response, new Callable<Response>() {
+				@Override
+				public Response call() throws InterruptedException {
+					started.countDown();
+					release.await(5, TimeUnit.SECONDS);
+					return Response.ok("done").build();
+				}
+			});
+		}
+	}
+
+	@Override
+	protected Application configure() {
+		return new ResourceConfig(SlowResource.class);
+	}
+
+	@Test
+	public void testFullQueueFailsFast() throws Exception {
+		Future<Response> running = target("slow").request().async().get();
+		started.await(5, TimeUnit.SECONDS);
+		Future<Response> queued = target("slow").request().async().get();
+		while (EXECUTOR.getStats().getQueued() < 1) {
+			Thread.sleep(1);
+		}
+
+		// one thread busy and one request queued, the next one is rejected
+		Response rejected = target("slow").request().get();
+		assertEquals(503, rejected.getStatus());
+		assertEquals("1", rejected.getHeaderString("Retry-After"));
+		assertEquals(1, EXECUTOR.getStats().getRejected());
+
+		release.countDown();
+		assertEquals(200, running.get().getStatus());
+		assertEquals(200, queued.get().getStatus());
+	}
+}
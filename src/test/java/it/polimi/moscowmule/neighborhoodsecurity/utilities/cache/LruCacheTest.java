@@ -0,0 +1,73 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		LruCache<Integer, String> cache = new LruCache<Integer, String>("test-lru", 2, 60000);
+		cache.put(1, "one");
+		cache.put(2, "two");
+		assertEquals("one", cache.get(1));
+		cache.put(3, "three");
+
+		assertNull(cache.get(2));
+		assertEquals("one", cache.get(1));
+		assertEquals("three", cache.get(3));
+		CacheStats stats = cache.getStats();
+		assertEquals(2, stats.getSize());
+		assertEquals(1, stats.getEvictions());
+		assertEquals(3, stats.getHits());
+		assertEquals(1, stats.getMisses());
+	}
+
+	@Test
+	public void testExpiresAndInvalidates() throws InterruptedException {
+		LruCache<Integer, String> cache = new LruCache<Integer, String>("test-ttl", 10, 20);
+		cache.put(1, "one");
+		Thread.sleep(40);
+		assertNull(cache.get(1));
+		assertEquals(1, cache.getStats().getExpirations());
+
+		// a value loaded before an invalidation is not cached
+		long stamp = cache.stamp();
+		cache.invalidate(2);
+		cache.put(2, "stale", stamp);
+		assertNull(cache.get(2));
+	}
+
+	@Test
+	public void testInvalidationIsPerKey() {
+		LruCache<Integer, String> cache = new LruCache<Integer, String>("test-stamp", 10, 60000);
+		cache.put(1, "one");
+		long stamp = cache.stamp();
+		assertEquals("one", cache.invalidate(1));
+		assertNull(cache.invalidate(3));
+
+		// only the loads of the invalidated keys are dropped
+		assertFalse(cache.put(1, "stale", stamp));
+		assertFalse(cache.put(3, "stale", stamp));
+		assertTrue(cache.put(2, "two", stamp));
+		assertEquals("two", cache.get(2));
+		assertTrue(cache.put(1, "fresh", cache.stamp()));
+		assertEquals("fresh", cache.get(1));
+	}
+
+	@Test
+	public void testSegmentedCacheStaysBounded() {
+		LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>("test-segments", 1000, 60000);
+		for (int i = 0; i < 5000; i++) {
+			cache.put(i, i);
+		}
+		CacheStats stats = cache.getStats();
+		assertTrue(stats.getSize() <= 1000);
+		assertEquals(5000, stats.getSize() + stats.getEvictions());
+		assertEquals(Integer.valueOf(4999), cache.get(4999));
+	}
+}
@@ -0,0 +1,45 @@
+package it.polimi.moscowmule.neighborhoodsecurity.utilities.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	public void testBurstThenWait() {
+		// one token per minute, so nothing is refilled during the test
+		TokenBucket bucket = new TokenBucket(1, 3);
+		assertEquals(0, bucket.tryAcquire());
+		assertEquals(0, bucket.tryAcquire());
+		assertEquals(0, bucket.tryAcquire());
+		long wait = bucket.tryAcquire();
+		assertTrue(wait > 59000000000L && wait <= 60000000000L);
+	}
+
+	@Test
+	public void testConcurrentAcquiresNeverExceedBurst() throws InterruptedException {
+		final TokenBucket bucket = new TokenBucket(1, 100);
+		final AtomicInteger taken = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int t = 0; t < 8; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						if (bucket.tryAcquire() == 0) {
+							taken.incrementAndGet();
+						}
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		assertEquals(100, taken.get());
+	}
+}